@@ -0,0 +1,64 @@
+package de.htw.mp.benchmark;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.htw.mp.feature.FeatureExtractionPipeline;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+
+/**
+ * Features of a bundled data set, calculated once per benchmark run.
+ * The image files are categorized by their names like in the DatasetViewer.
+ *
+ * @author Nico Hezel
+ */
+@State(Scope.Benchmark)
+public class DatasetState {
+
+	@Param({ "mnist1000", "HolidayMini256" })
+	public String dataset;
+
+	/**
+	 * Where the features are kept, the off-heap storages can be compared with -p storage=HEAP,DIRECT,MAPPED
+	 */
+	@Param({ "HEAP" })
+	public String storage;
+
+	public Map<String, Path[]> categories;
+	public Path[] imageFiles;
+	public FeatureExtractionPipeline.Result features;
+	public FeatureContainer[] images;
+	public FeatureContainer[] categoryFeatures;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		Path directory = Paths.get(System.getProperty("dataset.dir", "dataset"), dataset);
+
+		Map<String, List<Path>> files = new HashMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{jpg,jpeg,png}")) {
+			for (Path imageFile : stream)
+				files.computeIfAbsent(imageFile.getFileName().toString().split("_")[0], name -> new ArrayList<>()).add(imageFile);
+		}
+		categories = new HashMap<>();
+		files.forEach((name, list) -> categories.put(name, list.toArray(new Path[0])));
+		imageFiles = files.values().stream().flatMap(List::stream).sorted().toArray(Path[]::new);
+
+		features = new FeatureExtractionPipeline(Runtime.getRuntime().availableProcessors(), FeatureStore.Storage.valueOf(storage)).run(categories, null, (done, total) -> {});
+		images = features.getImageFeatures().values().stream().sorted((f1, f2) -> Integer.compare(f1.getRow(), f2.getRow())).toArray(FeatureContainer[]::new);
+		categoryFeatures = features.getCategoryFeatures().values().stream().sorted((f1, f2) -> Integer.compare(f1.getRow(), f2.getRow())).toArray(FeatureContainer[]::new);
+	}
+}
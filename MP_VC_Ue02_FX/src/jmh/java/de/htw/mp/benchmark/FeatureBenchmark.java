@@ -0,0 +1,78 @@
+package de.htw.mp.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.htw.mp.feature.FeatureExtractionPipeline;
+import de.htw.mp.feature.MeanAccumulator;
+import de.htw.mp.model.FeatureStore;
+
+/**
+ * Feature calculation of a single decoded image and of all images of a category.
+ *
+ * @author Nico Hezel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeatureBenchmark {
+
+	private BufferedImage image;
+	private FeatureStore store;
+	private MeanAccumulator accumulator;
+
+	@Setup(Level.Trial)
+	public void setup(DatasetState state) throws IOException {
+		image = ImageIO.read(state.imageFiles[0].toFile());
+		store = new FeatureStore(image.getWidth(), image.getHeight(), 1);
+		store.add(state.imageFiles[0].getFileName().toString(), "benchmark");
+	}
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		accumulator = new MeanAccumulator();
+	}
+
+	/**
+	 * Sums of the mean color and mean image of one image, successor of getColorSum and addImage
+	 */
+	@Benchmark
+	public MeanAccumulator addImage() {
+		return accumulator.add(image);
+	}
+
+	/**
+	 * All feature types of one decoded image
+	 */
+	@Benchmark
+	public FeatureStore extractImageFeatures() {
+		FeatureExtractionPipeline.extractImageFeatures(image, store, 0);
+		return store;
+	}
+
+	/**
+	 * Decode and sum up all images of the data set
+	 */
+	@Benchmark
+	public byte[] meanImage(DatasetState state) {
+		return MeanAccumulator.of(state.imageFiles).getMeanImage();
+	}
+}
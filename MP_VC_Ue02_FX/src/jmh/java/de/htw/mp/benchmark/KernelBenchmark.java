@@ -0,0 +1,73 @@
+package de.htw.mp.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.htw.mp.retrieval.DistanceKernels;
+
+/**
+ * Throughput of the distance kernels compared to a plain long accumulating loop.
+ * The lengths are the dimensions of the mean color, the color histogram and
+ * the mean images of mnist1000 and HolidayMini256.
+ *
+ * @author Nico Hezel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KernelBenchmark {
+
+	@Param({ "3", "512", "2352", "196608" })
+	public int length;
+
+	private byte[] d1;
+	private byte[] d2;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(7);
+		d1 = new byte[length];
+		d2 = new byte[length];
+		random.nextBytes(d1);
+		random.nextBytes(d2);
+	}
+
+	@Benchmark
+	public long baselineL1() {
+		long distance = 0;
+		for (int i = 0; i < length; i++)
+			distance += Math.abs((d1[i] & 0xFF) - (d2[i] & 0xFF));
+		return distance;
+	}
+
+	@Benchmark
+	public long l1() {
+		return DistanceKernels.l1(d1, 0, d2, 0, length);
+	}
+
+	@Benchmark
+	public long squaredL2() {
+		return DistanceKernels.squaredL2(d1, 0, d2, 0, length);
+	}
+
+	@Benchmark
+	public double l2() {
+		return DistanceKernels.l2(d1, 0, d2, 0, length);
+	}
+}
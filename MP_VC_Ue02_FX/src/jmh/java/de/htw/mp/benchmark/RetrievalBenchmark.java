@@ -0,0 +1,83 @@
+package de.htw.mp.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+import de.htw.mp.retrieval.EvaluationResult;
+import de.htw.mp.retrieval.RetrievalService;
+
+/**
+ * Distance calculation, search and evaluation of the retrieval service. The benchmark
+ * arrays are not the databases of the service, no distance matrix or search index
+ * is used and every call calculates all of its distances.
+ *
+ * @author Nico Hezel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrievalBenchmark {
+
+	@Param({ "MeanColor", "MeanImage", "ColorHistogram", "GrayThumbnail", "ColorLayout" })
+	public String feature;
+
+	@Param({ "4" })
+	public int k;
+
+	private RetrievalService service;
+	private FeatureType featureType;
+	private FeatureContainer query;
+	private FeatureContainer other;
+
+	@Setup(Level.Trial)
+	public void setup(DatasetState state) {
+		service = new RetrievalService();
+		featureType = FeatureType.get(feature);
+		query = state.images[0];
+		other = state.images[state.images.length - 1];
+	}
+
+	@Benchmark
+	public long calculateDistance() {
+		return service.calculateDistance(query, other, featureType);
+	}
+
+	/**
+	 * Distance between two packed rows, without the lookup of the rows
+	 */
+	@Benchmark
+	public long calculateRowDistance() {
+		FeatureStore store = query.getStore();
+		return featureType.getExtractor().distance(store.getBuffer(featureType, query.getRow()), store.getOffset(featureType, query.getRow()),
+				store.getBuffer(featureType, other.getRow()), store.getOffset(featureType, other.getRow()), store.getDimension(featureType));
+	}
+
+	@Benchmark
+	public List<FeatureContainer> retrieve(DatasetState state) {
+		return service.retrieveTopK(query, state.images, featureType, state.images.length);
+	}
+
+	@Benchmark
+	public EvaluationResult evaluate(DatasetState state) {
+		return service.evaluate(state.images, state.images, featureType, k, true);
+	}
+}
@@ -0,0 +1,147 @@
+package de.htw.mp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import de.htw.mp.feature.FeatureExtractionPipeline;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureIndexFile;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+import de.htw.mp.retrieval.EvaluationResult;
+import de.htw.mp.retrieval.KnnClassifier;
+import de.htw.mp.retrieval.RetrievalService;
+
+/**
+ * Command line version of the evaluation. Calculates the features of a data set
+ * directory and evaluates the k-nearest-neighbour classification with the
+ * {@link RetrievalService}, no JavaFX classes are loaded. Prints the accuracy, timings and throughput. With --sweep
+ * the accuracy of every k up to kMax is printed instead.
+ *
+ * Usage: MP_VC_Ue02_CLI <directory> [--feature <type>] [--k <n>] [--threads <n>] [--database images|categories] [--storage heap|direct|mapped] [--voting majority|weighted] [--sweep <kMax>] [--use-index]
+ *
+ * @author Nico Hezel
+ */
+public class MP_VC_Ue02_CLI {
+
+	private static final String USAGE = "Usage: MP_VC_Ue02_CLI <directory> [--feature <type>] [--k <n>] [--threads <n>] [--database images|categories] [--storage heap|direct|mapped] [--voting majority|weighted] [--sweep <kMax>] [--use-index]";
+
+	public static void main(String[] args) throws Exception {
+		Path directory = null;
+		FeatureType[] featureTypes = FeatureType.values();
+		int k = 4;
+		int sweepMaxK = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean categoryDatabase = false;
+		boolean useIndex = false;
+		FeatureStore.Storage storage = null;
+		KnnClassifier.Voting voting = KnnClassifier.Voting.MAJORITY;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--feature":	featureTypes = new FeatureType[] { FeatureType.get(args[++i]) }; break;
+					case "--k":			k = Integer.parseInt(args[++i]); break;
+					case "--threads":	threads = Integer.parseInt(args[++i]); break;
+					case "--database":	categoryDatabase = "categories".equalsIgnoreCase(args[++i]); break;
+					case "--storage":	storage = FeatureStore.Storage.valueOf(args[++i].toUpperCase()); break;
+					case "--voting":	voting = "weighted".equalsIgnoreCase(args[++i]) ? KnnClassifier.Voting.DISTANCE_WEIGHTED : KnnClassifier.Voting.valueOf(args[i].toUpperCase()); break;
+					case "--sweep":		sweepMaxK = Integer.parseInt(args[++i]); break;
+					case "--use-index":	useIndex = true; break;
+					default:			directory = Paths.get(args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage());
+			directory = null;
+		}
+		if(directory == null || !Files.isDirectory(directory) || k < 1 || threads < 1 || sweepMaxK < 0) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		// features
+		long start = System.nanoTime();
+		Map<String, Path[]> categories = FeatureExtractionPipeline.readCategories(directory);
+		Path indexFile = directory.resolve(FeatureIndexFile.FILE_NAME);
+		FeatureIndexFile index = useIndex ? FeatureIndexFile.read(indexFile) : null;
+		FeatureExtractionPipeline.Result features = new FeatureExtractionPipeline(threads, storage).run(categories, index, (done, total) -> {});
+		if(useIndex && features.differsFrom(index))
+			writeIndex(indexFile, directory, features);
+		long extractionTime = System.nanoTime() - start;
+
+		System.out.println("Dataset:    "+directory.toAbsolutePath()+" ("+features.getImageFeatures().size()+" images, "+features.getCategoryFeatures().size()+" categories)");
+		System.out.println("Threads:    "+threads);
+		System.out.println("Storage:    "+features.getStore().getStorage());
+		System.out.println("Voting:     "+voting);
+		System.out.println(String.format(Locale.ROOT, "Extraction: %d ms, %.1f images/s, %d calculated", 
+				extractionTime / 1000000, features.getImageFeatures().size() / seconds(extractionTime), features.getCalculatedCount()));
+
+		// exact search indices, the evaluation does not use approximate ones. The service
+		// runs everything in its own pool, with the given number of threads.
+		start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		RetrievalService service = new RetrievalService(pool);
+		service.setFeatures(features);
+		service.setVoting(voting);
+		service.buildSearchIndices(false, () -> false);
+		System.out.println("Indices:    "+(System.nanoTime() - start) / 1000000+" ms");
+
+		// evaluation
+		FeatureContainer[] queries = service.getImageDatabase();
+		FeatureContainer[] database = categoryDatabase ? service.getCategoryDatabase() : service.getImageDatabase();
+		for (FeatureType featureType : featureTypes) {
+			if(sweepMaxK > 0) {
+				sweep(service, queries, database, featureType, sweepMaxK, !categoryDatabase);
+				continue;
+			}
+			
+			start = System.nanoTime();
+			EvaluationResult result = service.evaluate(queries, database, featureType, k, !categoryDatabase);
+			long evaluationTime = System.nanoTime() - start;
+
+			System.out.println(String.format(Locale.ROOT, "%-16s k=%d database=%s accuracy %.2f%% (%d/%d), %d ms, %.1f queries/s", 
+					featureType.name(), k, categoryDatabase ? "categories" : "images", result.getAccuracy() * 100, 
+					result.getCorrectCount(), result.getQueryCount(), evaluationTime / 1000000, result.getQueryCount() / seconds(evaluationTime)));
+		}
+		pool.shutdown();
+		features.getStore().close();
+	}
+
+	/**
+	 * Print the accuracy of every k and the best k
+	 */
+	private static void sweep(RetrievalService service, FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut) {
+		long start = System.nanoTime();
+		float[] accuracies = service.sweep(queries, database, featureType, kMax, leaveOneOut);
+		long sweepTime = System.nanoTime() - start;
+
+		int best = 0;
+		StringBuilder curve = new StringBuilder();
+		for (int k = 0; k < kMax; k++) {
+			if(accuracies[k] > accuracies[best])
+				best = k;
+			curve.append(String.format(Locale.ROOT, " %d:%.2f", k + 1, accuracies[k] * 100));
+		}
+		System.out.println(String.format(Locale.ROOT, "%-16s sweep k=1..%d database=%s best k=%d accuracy %.2f%%, %d ms", 
+				featureType.name(), kMax, leaveOneOut ? "images" : "categories", best + 1, accuracies[best] * 100, sweepTime / 1000000));
+		System.out.println("                "+curve);
+	}
+
+	private static void writeIndex(Path indexFile, Path directory, FeatureExtractionPipeline.Result features) {
+		try {
+			FeatureIndexFile.write(indexFile, directory, features.getCategoryFeatures().values(), features.getImageFeatures().values());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static double seconds(long nanos) {
+		return Math.max(nanos, 1) / 1e9;
+	}
+}
@@ -0,0 +1,114 @@
+package de.htw.mp.feature;
+
+import java.nio.ByteBuffer;
+
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Running sums of the features of all images in a category. Images can be added
+ * and removed one at a time, the category features are the averages of the sums
+ * and get updated without going over the other images again.
+ * Since all images have the same size, the mean color of all pixels is the
+ * mean color of the mean image. All other feature types are averaged value by value.
+ *
+ * @author Nico Hezel
+ */
+public class CategoryMean {
+
+	protected final FeatureStore store;
+
+	/**
+	 * Sums of the mean images
+	 */
+	protected final MeanAccumulator mean = new MeanAccumulator();
+
+	/**
+	 * Sums of the other feature types, indexed by their ordinal
+	 */
+	protected final long[][] sums;
+
+	protected int count;
+
+	/**
+	 * @param store containing the image and category features
+	 */
+	public CategoryMean(FeatureStore store) {
+		this.store = store;
+		FeatureType[] types = store.getTypes();
+		this.sums = new long[types.length][];
+		for (FeatureType type : types)
+			if(type != FeatureType.MeanImage && type != FeatureType.MeanColor)
+				sums[type.ordinal()] = new long[store.getDimension(type)];
+	}
+
+	/**
+	 * Add the features of an image row
+	 *
+	 * @param row
+	 */
+	public void add(int row) {
+		update(row, 1);
+	}
+
+	/**
+	 * Remove the features of an image row, the values of the row must not
+	 * have changed since it was added.
+	 *
+	 * @param row
+	 */
+	public void remove(int row) {
+		update(row, -1);
+	}
+
+	private void update(int row, int sign) {
+		byte[] image = store.get(FeatureType.MeanImage, row);
+		if(sign > 0)
+			mean.add(image, 0, store.getImageWidth(), store.getImageHeight());
+		else
+			mean.remove(image, 0, store.getImageWidth(), store.getImageHeight());
+
+		for (FeatureType type : store.getTypes()) {
+			long[] sum = sums[type.ordinal()];
+			if(sum == null) continue;
+
+			ByteBuffer data = store.getBuffer(type, row);
+			int offset = store.getOffset(type, row);
+			for (int i = 0; i < sum.length; i++)
+				sum[i] += sign * (data.get(offset + i) & 0xFF);
+		}
+		count += sign;
+	}
+
+	/**
+	 * Write the average features of all images into the row of the store.
+	 * Nothing gets written if the category has no images.
+	 *
+	 * @param row
+	 */
+	public void write(int row) {
+		if(count == 0) return;
+
+		store.set(FeatureType.MeanImage, row, mean.getMeanImage());
+		store.set(FeatureType.MeanColor, row, mean.getMeanColor());
+
+		for (FeatureType type : store.getTypes()) {
+			long[] sum = sums[type.ordinal()];
+			if(sum == null) continue;
+
+			byte[] values = new byte[sum.length];
+			for (int i = 0; i < sum.length; i++)
+				values[i] = (byte) (sum[i] / count);
+			store.set(type, row, values);
+		}
+	}
+
+	/**
+	 * Number of images in the category
+	 *
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+}
@@ -0,0 +1,72 @@
+package de.htw.mp.feature;
+
+import java.nio.ByteBuffer;
+
+import de.htw.mp.retrieval.DistanceKernels;
+
+/**
+ * Joint RGB histogram with bins^3 cells. Every channel is quantized into the given
+ * number of bins. The relative frequencies are stored as square roots scaled to
+ * 0-255, rare colors would otherwise round to zero. The squared L2 distance
+ * between these vectors is the squared Hellinger distance of the histograms.
+ *
+ * @author Nico Hezel
+ */
+public class ColorHistogramExtractor implements FeatureExtractor {
+
+	protected final int bins;
+	protected final int shift;
+
+	/**
+	 * @param bins per channel, a power of two between 1 and 256
+	 */
+	public ColorHistogramExtractor(int bins) {
+		if(bins < 1 || bins > 256 || Integer.bitCount(bins) != 1)
+			throw new IllegalArgumentException("Bins need to be a power of two between 1 and 256 but are "+bins);
+		this.bins = bins;
+		this.shift = 8 - Integer.numberOfTrailingZeros(bins);
+	}
+
+	@Override
+	public int getDimension(int imageWidth, int imageHeight) {
+		return bins * bins * bins;
+	}
+
+	@Override
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset) {
+		int[] histogram = new int[bins * bins * bins];
+		for (int pixel : pixels) {
+			int r = ((pixel >> 16) & 0xFF) >> shift;
+			int g = ((pixel >> 8) & 0xFF) >> shift;
+			int b = (pixel & 0xFF) >> shift;
+			histogram[(r * bins + g) * bins + b]++;
+		}
+
+		double count = Math.max(1, pixels.length);
+		for (int i = 0; i < histogram.length; i++)
+			target[offset + i] = (byte) Math.round(255 * Math.sqrt(histogram[i] / count));
+	}
+
+	@Override
+	public long distance(byte[] d1, int offset1, byte[] d2, int offset2, int length) {
+		return DistanceKernels.squaredL2(d1, offset1, d2, offset2, length);
+	}
+
+	@Override
+	public long distance(ByteBuffer d1, int offset1, ByteBuffer d2, int offset2, int length) {
+		return DistanceKernels.squaredL2(d1, offset1, d2, offset2, length);
+	}
+
+	@Override
+	public long lowerBound(int diff) {
+		return (long) diff * diff;
+	}
+
+	/**
+	 * The relative frequencies barely change as long as 64x64 pixels remain
+	 */
+	@Override
+	public int getMaxSubsampling(int imageWidth, int imageHeight) {
+		return Math.max(1, Math.min(imageWidth, imageHeight) / 64);
+	}
+}
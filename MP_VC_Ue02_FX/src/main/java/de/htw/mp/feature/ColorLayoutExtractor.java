@@ -0,0 +1,25 @@
+package de.htw.mp.feature;
+
+/**
+ * Spatial color distribution: the mean RGB value of every cell of a gridSize x gridSize grid
+ *
+ * @author Nico Hezel
+ */
+public class ColorLayoutExtractor extends GridExtractor {
+
+	public ColorLayoutExtractor(int gridSize) {
+		super(gridSize);
+	}
+
+	@Override
+	public int getDimension(int imageWidth, int imageHeight) {
+		return gridSize * gridSize * 3;
+	}
+
+	@Override
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset) {
+		int[] means = cellMeans(pixels, width, height);
+		for (int i = 0; i < means.length; i++)
+			target[offset + i] = (byte) means[i];
+	}
+}
@@ -0,0 +1,269 @@
+package de.htw.mp.feature;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+
+/**
+ * Keeps the features of a data set up to date while image files get added, changed
+ * or removed in its directory. Only the changed image is decoded, the features of
+ * its category are updated with the running sums of a {@link CategoryMean}.
+ *
+ * New images and categories get new rows in the feature store or reuse the rows
+ * of removed ones. The changed files are decoded on the watcher thread, all
+ * changes of the features are made by the given executor one after another, e.g.
+ * under the write lock of a {@link de.htw.mp.retrieval.RetrievalService}.
+ * Images need to have the same size as the rest of the data set.
+ *
+ * @author Nico Hezel
+ */
+public class DatasetWatcher implements Closeable {
+
+	/**
+	 * Gets informed after the features of an image file and its category have changed
+	 */
+	@FunctionalInterface
+	public static interface ChangeListener {
+		public void changed(Path imageFile, String category, boolean removed);
+	}
+
+	protected final Path directory;
+	protected final FeatureExtractionPipeline.Result result;
+	protected final Executor executor;
+	protected final ChangeListener listener;
+	protected final PathMatcher imageMatcher;
+
+	/**
+	 * Running sums of the categories, summed up on their first change
+	 */
+	protected final Map<String, CategoryMean> categoryMeans = new HashMap<>();
+
+	/**
+	 * Rows of removed images and categories
+	 */
+	protected final Deque<Integer> freeRows = new ArrayDeque<>();
+
+	protected final WatchService watchService;
+	protected final Thread thread;
+	protected volatile boolean closed;
+
+	/**
+	 * Watch the directory. The running sums of the pipeline are taken over, categories
+	 * from the index are summed up once one of their images changes.
+	 *
+	 * @param directory containing the image files
+	 * @param result features of the directory which get updated
+	 * @param executor which makes all changes to the features
+	 * @param listener
+	 * @throws IOException if the directory can not be watched
+	 */
+	public DatasetWatcher(Path directory, FeatureExtractionPipeline.Result result, Executor executor, ChangeListener listener) throws IOException {
+		this.directory = directory;
+		this.result = result;
+		this.executor = executor;
+		this.listener = listener;
+		this.imageMatcher = directory.getFileSystem().getPathMatcher("glob:" + FeatureExtractionPipeline.IMAGE_FILES);
+
+		categoryMeans.putAll(result.getCategoryMeans());
+
+		this.watchService = directory.getFileSystem().newWatchService();
+		directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		this.thread = new Thread(this::watch, "dataset-watcher");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Start watching the directory
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the directory, changes which are not applied yet get lost
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		watchService.close();
+		thread.interrupt();
+	}
+
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == OVERFLOW) {
+						rescan();
+						continue;
+					}
+
+					Path imageFile = directory.resolve((Path) event.context());
+					if(!imageMatcher.matches(imageFile.getFileName()))
+						continue;
+					if(event.kind() == ENTRY_DELETE)
+						apply(() -> remove(imageFile));
+					else
+						update(imageFile);
+				}
+				if(!key.reset())
+					return;
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Some events were lost, compare the known images with the files in the directory.
+	 * Changes of known images can not be detected this way.
+	 */
+	private void rescan() throws InterruptedException {
+		try {
+			Set<String> known = CompletableFuture.supplyAsync(() -> new HashSet<>(result.getImageFeatures().keySet()), executor).get();
+			Set<String> existing = new HashSet<>();
+			for (Path[] imageFiles : FeatureExtractionPipeline.readCategories(directory).values()) {
+				for (Path imageFile : imageFiles) {
+					String name = imageFile.getFileName().toString();
+					existing.add(name);
+					if(!known.contains(name))
+						update(imageFile);
+				}
+			}
+
+			known.removeAll(existing);
+			for (String name : known)
+				apply(() -> remove(directory.resolve(name)));
+		} catch (IOException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Calculate the features of a new or changed image file. Files which are still
+	 * being written can not be decoded, they are updated again with the next event.
+	 */
+	private void update(Path imageFile) {
+		FeatureStore store = result.getStore();
+		FeatureStore features = new FeatureStore(store.getImageWidth(), store.getImageHeight(), 1);
+		FeatureContainer feature = features.add(imageFile.getFileName().toString(), FeatureExtractionPipeline.getCategory(imageFile));
+		try {
+			FeatureExtractionPipeline.extractImageFeatures(imageFile, features, feature.getRow());
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return;
+		}
+		apply(() -> add(imageFile, features, feature.getRow()));
+	}
+
+	/**
+	 * Let the executor make the change, unless the watcher is closed by then
+	 */
+	private void apply(Runnable change) {
+		executor.execute(() -> {
+			if(!closed)
+				change.run();
+		});
+	}
+
+	/**
+	 * Copy the features of a new or changed image into the store and update its category.
+	 * Runs in the executor.
+	 */
+	private void add(Path imageFile, FeatureStore features, int featureRow) {
+		FeatureStore store = result.getStore();
+		String name = imageFile.getFileName().toString();
+		String category = FeatureExtractionPipeline.getCategory(imageFile);
+
+		// changed images keep their row, the old features leave the category first
+		FeatureContainer feature = result.getImageFeatures().get(name);
+		CategoryMean mean = getCategoryMean(category);
+		if(feature != null)
+			mean.remove(feature.getRow());
+		else {
+			feature = addRow(name, category);
+			result.getImageFeatures().put(name, feature);
+		}
+		store.copy(features, featureRow, feature.getRow());
+		mean.add(feature.getRow());
+
+		FeatureContainer categoryFeature = result.getCategoryFeatures().get(category);
+		if(categoryFeature == null) {
+			categoryFeature = addRow(category, category);
+			result.getCategoryFeatures().put(category, categoryFeature);
+		}
+		mean.write(categoryFeature.getRow());
+		listener.changed(imageFile, category, false);
+	}
+
+	/**
+	 * Remove the features of a deleted image and update its category. Categories
+	 * without images are removed as well. Runs in the executor.
+	 */
+	private void remove(Path imageFile) {
+		String name = imageFile.getFileName().toString();
+		FeatureContainer feature = result.getImageFeatures().get(name);
+		if(feature == null) return;
+
+		// the category is summed up before the image leaves it
+		String category = feature.getCategory();
+		CategoryMean mean = getCategoryMean(category);
+		result.getImageFeatures().remove(name);
+		mean.remove(feature.getRow());
+		freeRows.push(feature.getRow());
+
+		if(mean.size() == 0) {
+			categoryMeans.remove(category);
+			FeatureContainer categoryFeature = result.getCategoryFeatures().remove(category);
+			if(categoryFeature != null)
+				freeRows.push(categoryFeature.getRow());
+		} else
+			mean.write(result.getCategoryFeatures().get(category).getRow());
+		listener.changed(imageFile, category, true);
+	}
+
+	/**
+	 * Running sums of the category, a category which was taken from the index
+	 * gets summed up from the current features of its images
+	 */
+	private CategoryMean getCategoryMean(String category) {
+		CategoryMean mean = categoryMeans.get(category);
+		if(mean == null) {
+			mean = new CategoryMean(result.getStore());
+			for (FeatureContainer feature : result.getImageFeatures().values())
+				if(category.equals(feature.getCategory()))
+					mean.add(feature.getRow());
+			categoryMeans.put(category, mean);
+		}
+		return mean;
+	}
+
+	private FeatureContainer addRow(String name, String category) {
+		if(freeRows.isEmpty())
+			return result.getStore().add(name, category);
+		return new FeatureContainer(name, category, result.getStore(), freeRows.pop());
+	}
+}
@@ -0,0 +1,438 @@
+package de.htw.mp.feature;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureIndexFile;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Calculates the features of all images and categories of a data set.
+ * Every image file gets decoded exactly once and the extractors of all feature
+ * types are applied to this single decode. The category features are averaged from the image
+ * features afterwards. The work is done by a fixed number of worker threads,
+ * the pipeline reports its progress and can be cancelled.
+ *
+ * @author Nico Hezel
+ */
+public class FeatureExtractionPipeline {
+
+	/**
+	 * Image files of a data set directory
+	 */
+	public static final String IMAGE_FILES = "*.{jpg,jpeg,png}";
+
+	/**
+	 * Gets informed whenever an image or category is done
+	 */
+	@FunctionalInterface
+	public static interface ProgressListener {
+		public void progress(int done, int total);
+	}
+
+	/**
+	 * Features of a data set
+	 */
+	public static class Result {
+
+		protected FeatureStore store;
+
+		// concurrent maps, they are looked up while a watcher changes them
+		protected Map<String, FeatureContainer> categoryFeatures;
+		protected Map<String, FeatureContainer> imageFeatures;
+		protected Map<String, CategoryMean> categoryMeans;
+		protected int calculated;
+
+		public FeatureStore getStore() {
+			return store;
+		}
+
+		public Map<String, FeatureContainer> getCategoryFeatures() {
+			return categoryFeatures;
+		}
+
+		public Map<String, FeatureContainer> getImageFeatures() {
+			return imageFeatures;
+		}
+
+		/**
+		 * Running sums of the categories which were averaged, categories taken
+		 * from the index have none
+		 *
+		 * @return
+		 */
+		public Map<String, CategoryMean> getCategoryMeans() {
+			return categoryMeans;
+		}
+
+		/**
+		 * Number of images and categories which were not taken from the index
+		 *
+		 * @return
+		 */
+		public int getCalculatedCount() {
+			return calculated;
+		}
+
+		/**
+		 * True if the index needs to be written again, because files were added,
+		 * changed or removed since it was written
+		 *
+		 * @param index features the result was calculated from or NULL
+		 * @return
+		 */
+		public boolean differsFrom(FeatureIndexFile index) {
+			return index == null || calculated > 0 || index.size() != categoryFeatures.size() + imageFeatures.size();
+		}
+	}
+
+	protected final int threads;
+	protected final FeatureStore.Storage storage;
+	protected volatile boolean cancelled;
+
+	public FeatureExtractionPipeline() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public FeatureExtractionPipeline(int threads) {
+		this(threads, null);
+	}
+
+	/**
+	 * @param threads number of worker threads
+	 * @param storage of the features or NULL to choose it by the size of the data set
+	 */
+	public FeatureExtractionPipeline(int threads, FeatureStore.Storage storage) {
+		this.threads = Math.max(1, threads);
+		this.storage = storage;
+	}
+
+	/**
+	 * Stop all running and waiting work, {@link #run(Map, FeatureIndexFile, ProgressListener)} throws
+	 * a CancellationException afterwards.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Calculate the features of all images and categories. Images and categories
+	 * which have not changed since the index was written keep their rows in the
+	 * store of the index, which becomes the store of the result. Only the rows of
+	 * changed and new files are added and calculated. The store of the result
+	 * belongs to the caller and gets closed if the run fails.
+	 *
+	 * @param categories image files of each category, an "All" category is ignored
+	 * @param index features calculated earlier or NULL
+	 * @param listener
+	 * @return
+	 * @throws IOException if an image could not be read
+	 * @throws InterruptedException
+	 */
+	public Result run(Map<String, Path[]> categories, FeatureIndexFile index, ProgressListener listener) throws IOException, InterruptedException {
+
+		// all images need to have the same size as the first one
+		int imageCount = 0;
+		Path firstFile = null;
+		for (Map.Entry<String, Path[]> entry : categories.entrySet()) {
+			if("All".equalsIgnoreCase(entry.getKey())) continue;
+			imageCount += entry.getValue().length;
+			if(firstFile == null && entry.getValue().length > 0)
+				firstFile = entry.getValue()[0];
+		}
+		int[] imageSize = (firstFile == null) ? new int[2] : ImageDecoder.readSize(firstFile);
+		if(index != null && (index.getStore().getImageWidth() != imageSize[0] || index.getStore().getImageHeight() != imageSize[1]))
+			index = null;
+
+		// rows of unchanged files in the index
+		Map<String, Integer> cachedCategoryRows = new HashMap<>();
+		Map<Path, Integer> cachedImageRows = new HashMap<>();
+		int rowCount = 0;
+		for (Map.Entry<String, Path[]> entry : categories.entrySet()) {
+			if("All".equalsIgnoreCase(entry.getKey())) continue;
+			int categoryRow = (index == null) ? -1 : index.getCategoryRow(entry.getKey(), entry.getValue());
+			if(categoryRow != -1)
+				cachedCategoryRows.put(entry.getKey(), categoryRow);
+			else
+				rowCount++;
+			for (Path imageFile : entry.getValue()) {
+				int imageRow = (index == null) ? -1 : index.getImageRow(imageFile);
+				if(imageRow != -1)
+					cachedImageRows.put(imageFile, imageRow);
+				else
+					rowCount++;
+			}
+		}
+
+		// reserve the rows of all changed files in advance, the workers only fill them
+		Result result = new Result();
+		if(index != null) {
+			result.store = index.getStore();
+			result.store.reserve(result.store.size() + rowCount);
+		} else {
+			FeatureStore.Storage rowStorage = (storage != null) ? storage : FeatureStore.Storage.forSize(FeatureStore.getSize(imageSize[0], imageSize[1], rowCount));
+			result.store = new FeatureStore(imageSize[0], imageSize[1], rowCount, rowStorage);
+		}
+		result.categoryFeatures = new ConcurrentHashMap<>();
+		result.imageFeatures = new ConcurrentHashMap<>();
+		result.categoryMeans = new ConcurrentHashMap<>();
+		Map<String, List<FeatureContainer>> categoryMembers = new HashMap<>();
+		categories.forEach((categoryName, categoryFiles) -> {
+			if("All".equalsIgnoreCase(categoryName)) return;
+			Integer cachedRow = cachedCategoryRows.get(categoryName);
+			result.categoryFeatures.put(categoryName, (cachedRow != null) 
+					? new FeatureContainer(categoryName, categoryName, result.store, cachedRow) 
+					: result.store.add(categoryName, categoryName));
+		});
+		Map<FeatureContainer, Path> imageFiles = new HashMap<>();
+		categories.forEach((categoryName, categoryFiles) -> {
+			if("All".equalsIgnoreCase(categoryName)) return;
+			List<FeatureContainer> members = new ArrayList<>(categoryFiles.length);
+			for (Path imageFile : categoryFiles) {
+				String name = imageFile.getFileName().toString();
+				Integer cachedRow = cachedImageRows.get(imageFile);
+				FeatureContainer feature = (cachedRow != null) 
+						? new FeatureContainer(name, categoryName, result.store, cachedRow) 
+						: result.store.add(name, categoryName);
+				result.imageFeatures.put(name, feature);
+				if(cachedRow == null)
+					imageFiles.put(feature, imageFile);
+				members.add(feature);
+			}
+			categoryMembers.put(categoryName, members);
+		});
+
+		int total = result.imageFeatures.size() + result.categoryFeatures.size();
+		int done = cachedImageRows.size() + cachedCategoryRows.size();
+		listener.progress(done, total);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<>(executor);
+
+			// decode all changed images
+			int pending = 0;
+			for (Map.Entry<FeatureContainer, Path> entry : imageFiles.entrySet()) {
+				FeatureContainer feature = entry.getKey();
+				Path imageFile = entry.getValue();
+				completion.submit(() -> {
+					checkCancelled();
+					extractImageFeatures(imageFile, result.store, feature.getRow());
+					return true;
+				});
+				pending++;
+			}
+			result.calculated += pending;
+			done = await(completion, pending, done, total, listener);
+
+			// the category features are the average of the image features
+			pending = 0;
+			for (Map.Entry<String, FeatureContainer> entry : result.categoryFeatures.entrySet()) {
+				String categoryName = entry.getKey();
+				FeatureContainer feature = entry.getValue();
+				if(cachedCategoryRows.containsKey(categoryName)) continue;
+				List<FeatureContainer> members = categoryMembers.get(categoryName);
+				completion.submit(() -> {
+					checkCancelled();
+					result.categoryMeans.put(categoryName, averageFeatures(members, result.store, feature.getRow()));
+					return true;
+				});
+				pending++;
+			}
+			result.calculated += pending;
+			await(completion, pending, done, total, listener);
+
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			// nobody gets the incomplete features
+			result.store.close();
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read all image files of a directory and categorize them by the part of
+	 * their name before the first underscore.
+	 *
+	 * @param directory
+	 * @return image files of each category
+	 * @throws IOException if the directory can not be read
+	 */
+	public static Map<String, Path[]> readCategories(Path directory) throws IOException {
+		Map<String, List<Path>> categories = new HashMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, IMAGE_FILES)) {
+			for (Path imageFile : files)
+				categories.computeIfAbsent(getCategory(imageFile), key -> new ArrayList<>()).add(imageFile);
+		}
+
+		Map<String, Path[]> categoryFiles = new HashMap<>();
+		categories.forEach((key, value) -> categoryFiles.put(key, value.toArray(new Path[0])));
+		return categoryFiles;
+	}
+
+	/**
+	 * Category of an image file, the part of its name before the first underscore
+	 *
+	 * @param imageFile
+	 * @return
+	 */
+	public static String getCategory(Path imageFile) {
+		return imageFile.getFileName().toString().split("_")[0];
+	}
+
+	/**
+	 * Wait until the given number of jobs are done
+	 */
+	private int await(ExecutorCompletionService<Boolean> completion, int pending, int done, int total, ProgressListener listener) throws IOException, InterruptedException {
+		for (int i = 0; i < pending; i++) {
+			Future<Boolean> future = completion.take();
+			checkCancelled();
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if(e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			listener.progress(++done, total);
+		}
+		return done;
+	}
+
+	private void checkCancelled() {
+		if(cancelled || Thread.currentThread().isInterrupted())
+			throw new CancellationException("Feature extraction was cancelled");
+	}
+
+	/**
+	 * Decode an image file and calculate all its features into the row of the store.
+	 * The file is decoded once with the subsampling of the most demanding feature type,
+	 * see {@link #getSubsampling(FeatureStore)}.
+	 *
+	 * @param imageFile
+	 * @param store
+	 * @param row
+	 * @throws IOException
+	 */
+	public static void extractImageFeatures(Path imageFile, FeatureStore store, int row) throws IOException {
+		int subsampling = getSubsampling(store);
+		extractImageFeatures(ImageDecoder.read(imageFile, subsampling), subsampling, store, row);
+	}
+
+	/**
+	 * Smallest subsampling all feature types of the store tolerate,
+	 * 1 if any type needs the full resolution.
+	 *
+	 * @param store
+	 * @return
+	 */
+	public static int getSubsampling(FeatureStore store) {
+		int subsampling = Integer.MAX_VALUE;
+		for (FeatureType type : store.getTypes())
+			subsampling = Math.min(subsampling, getSubsampling(type, store));
+		return Math.max(1, subsampling);
+	}
+
+	private static int getSubsampling(FeatureType type, FeatureStore store) {
+		return Math.max(1, type.getExtractor().getMaxSubsampling(store.getImageWidth(), store.getImageHeight()));
+	}
+
+	/**
+	 * Calculate all features of a decoded image and write them into the row of the store.
+	 *
+	 * @param image
+	 * @param store
+	 * @param row
+	 */
+	public static void extractImageFeatures(BufferedImage image, FeatureStore store, int row) {
+		extractImageFeatures(image, 1, store, row);
+	}
+
+	/**
+	 * Calculate all features of a subsampled image and write them into the row of the store.
+	 * The feature types are grouped by the subsampling they tolerate, every group gets
+	 * only every n-th pixel of every n-th row of the decoded image. These are the same
+	 * pixels a decoder with the larger subsampling would have read.
+	 *
+	 * @param image
+	 * @param subsampling factor of the decoding, see {@link FeatureExtractor#getMaxSubsampling(int, int)}
+	 * @param store
+	 * @param row
+	 */
+	public static void extractImageFeatures(BufferedImage image, int subsampling, FeatureStore store, int row) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int expectedWidth = (store.getImageWidth() + subsampling - 1) / subsampling;
+		int expectedHeight = (store.getImageHeight() + subsampling - 1) / subsampling;
+		if(width != expectedWidth || height != expectedHeight)
+			throw new IllegalArgumentException("Image size "+width+"x"+height+" differs from "+expectedWidth+"x"+expectedHeight);
+
+		int[] pixels = ImageDecoder.getArgb(image);
+		Map<Integer, int[]> subsampledPixels = new HashMap<>();
+		subsampledPixels.put(1, pixels);
+		for (FeatureType type : store.getTypes()) {
+			int step = Math.max(1, getSubsampling(type, store) / subsampling);
+			int[] typePixels = subsampledPixels.computeIfAbsent(step, s -> subsample(pixels, width, height, s));
+			byte[] values = new byte[store.getDimension(type)];
+			type.getExtractor().extract(typePixels, (width + step - 1) / step, (height + step - 1) / step, values, 0);
+			store.set(type, row, values);
+		}
+	}
+
+	/**
+	 * Every n-th pixel of every n-th row, starting with the first one.
+	 *
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 * @param step
+	 * @return
+	 */
+	private static int[] subsample(int[] pixels, int width, int height, int step) {
+		int subWidth = (width + step - 1) / step;
+		int subHeight = (height + step - 1) / step;
+		int[] result = new int[subWidth * subHeight];
+		int index = 0;
+		for (int y = 0; y < height; y += step)
+			for (int x = y * width, end = x + width; x < end; x += step)
+				result[index++] = pixels[x];
+		return result;
+	}
+
+	/**
+	 * Average the features of all members and write them into the row of the store.
+	 *
+	 * @param members
+	 * @param store
+	 * @param row
+	 * @return running sums of the members
+	 */
+	public static CategoryMean averageFeatures(List<FeatureContainer> members, FeatureStore store, int row) {
+		CategoryMean mean = new CategoryMean(store);
+		for (FeatureContainer member : members)
+			mean.add(member.getRow());
+		if(mean.size() > 0)
+			mean.write(row);
+		return mean;
+	}
+}
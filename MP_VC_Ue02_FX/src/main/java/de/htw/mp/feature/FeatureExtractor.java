@@ -0,0 +1,89 @@
+package de.htw.mp.feature;
+
+import java.nio.ByteBuffer;
+
+import de.htw.mp.retrieval.DistanceKernels;
+
+/**
+ * Calculates the feature values of a decoded image and the distance between two
+ * feature vectors. Feature vectors are rows of unsigned bytes inside of a
+ * {@link de.htw.mp.model.FeatureStore}.
+ *
+ * @author Nico Hezel
+ */
+public interface FeatureExtractor {
+
+	/**
+	 * Number of bytes of a feature vector
+	 *
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @return
+	 */
+	public int getDimension(int imageWidth, int imageHeight);
+
+	/**
+	 * Calculate the feature vector of an image and write it into the target array.
+	 *
+	 * @param pixels ARGB values of the image, row by row
+	 * @param width
+	 * @param height
+	 * @param target
+	 * @param offset of the first feature value inside of the target
+	 */
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset);
+
+	/**
+	 * Distance between two feature vectors, the L1 distance of the unsigned values by default.
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public default long distance(byte[] d1, int offset1, byte[] d2, int offset2, int length) {
+		return DistanceKernels.l1(d1, offset1, d2, offset2, length);
+	}
+
+	/**
+	 * Distance between two feature vectors in buffers, e.g. rows of a {@link de.htw.mp.model.FeatureStore}.
+	 * Needs to be the same as {@link #distance(byte[], int, byte[], int, int)}.
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public default long distance(ByteBuffer d1, int offset1, ByteBuffer d2, int offset2, int length) {
+		return DistanceKernels.l1(d1, offset1, d2, offset2, length);
+	}
+
+	/**
+	 * Smallest possible {@link #distance(byte[], int, byte[], int, int)} of two vectors
+	 * whose values differ by diff in a single dimension. Spatial indices use it to skip
+	 * parts of the database.
+	 *
+	 * @param diff absolute difference of the values
+	 * @return
+	 */
+	public default long lowerBound(int diff) {
+		return diff;
+	}
+
+	/**
+	 * Largest factor by which the image can be subsampled before the extraction
+	 * without changing the feature noticeably. Only every n-th pixel of every
+	 * n-th row gets decoded in this case.
+	 *
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @return 1 if the feature needs the full resolution
+	 */
+	public default int getMaxSubsampling(int imageWidth, int imageHeight) {
+		return 1;
+	}
+}
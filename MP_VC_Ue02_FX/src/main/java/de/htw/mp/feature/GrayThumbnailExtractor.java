@@ -0,0 +1,27 @@
+package de.htw.mp.feature;
+
+/**
+ * Downscaled gray value version of the image with gridSize x gridSize pixels
+ *
+ * @author Nico Hezel
+ */
+public class GrayThumbnailExtractor extends GridExtractor {
+
+	public GrayThumbnailExtractor(int size) {
+		super(size);
+	}
+
+	@Override
+	public int getDimension(int imageWidth, int imageHeight) {
+		return gridSize * gridSize;
+	}
+
+	@Override
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset) {
+		int[] means = cellMeans(pixels, width, height);
+		for (int i = 0; i < gridSize * gridSize; i++) {
+			int luma = (77 * means[i * 3] + 150 * means[i * 3 + 1] + 29 * means[i * 3 + 2]) >> 8;
+			target[offset + i] = (byte) luma;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package de.htw.mp.feature;
+
+/**
+ * Base of all features which split an image into a grid of cells and
+ * describe every cell by the mean RGB value of its pixels.
+ * Images smaller than the grid reuse their pixels for several cells.
+ *
+ * @author Nico Hezel
+ */
+public abstract class GridExtractor implements FeatureExtractor {
+
+	protected final int gridSize;
+
+	/**
+	 * @param gridSize number of cells per row and column
+	 */
+	public GridExtractor(int gridSize) {
+		if(gridSize < 1)
+			throw new IllegalArgumentException("Grid size needs to be positive but is "+gridSize);
+		this.gridSize = gridSize;
+	}
+
+	/**
+	 * Every cell keeps at least 4x4 pixels
+	 */
+	@Override
+	public int getMaxSubsampling(int imageWidth, int imageHeight) {
+		return Math.max(1, Math.min(imageWidth, imageHeight) / (gridSize * 4));
+	}
+
+	/**
+	 * Mean RGB values of all cells, row by row
+	 *
+	 * @param pixels ARGB values
+	 * @param width
+	 * @param height
+	 * @return interleaved RGB values
+	 */
+	protected int[] cellMeans(int[] pixels, int width, int height) {
+		int[] means = new int[gridSize * gridSize * 3];
+		for (int cy = 0; cy < gridSize; cy++) {
+			int y0 = cy * height / gridSize;
+			int y1 = Math.max(y0 + 1, (cy + 1) * height / gridSize);
+			for (int cx = 0; cx < gridSize; cx++) {
+				int x0 = cx * width / gridSize;
+				int x1 = Math.max(x0 + 1, (cx + 1) * width / gridSize);
+
+				long red = 0, green = 0, blue = 0;
+				for (int y = y0; y < y1; y++) {
+					for (int x = x0; x < x1; x++) {
+						int pixel = pixels[y * width + x];
+						red += (pixel >> 16) & 0xFF;
+						green += (pixel >> 8) & 0xFF;
+						blue += pixel & 0xFF;
+					}
+				}
+
+				int count = (y1 - y0) * (x1 - x0);
+				int cell = (cy * gridSize + cx) * 3;
+				means[cell]     = (int) (red / count);
+				means[cell + 1] = (int) (green / count);
+				means[cell + 2] = (int) (blue / count);
+			}
+		}
+		return means;
+	}
+}
@@ -0,0 +1,135 @@
+package de.htw.mp.feature;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes image files with {@link ImageReader}s which are kept per thread and
+ * image format, instead of looking up and creating a new reader for every file
+ * like {@link ImageIO#read(java.io.File)} does. Images can be decoded at a reduced
+ * resolution by reading only every n-th pixel of every n-th row.
+ *
+ * @author Nico Hezel
+ */
+public final class ImageDecoder {
+
+	/**
+	 * Readers of the current thread for each file suffix
+	 */
+	private static final ThreadLocal<Map<String, ImageReader>> readers = ThreadLocal.withInitial(HashMap::new);
+
+	private ImageDecoder() {
+	}
+
+	/**
+	 * Decode an image file at full resolution
+	 *
+	 * @param imageFile
+	 * @return
+	 * @throws IOException if the file can not be decoded
+	 */
+	public static BufferedImage read(Path imageFile) throws IOException {
+		return read(imageFile, 1);
+	}
+
+	/**
+	 * Decode every subsampling-th pixel of every subsampling-th row of an image file
+	 *
+	 * @param imageFile
+	 * @param subsampling 1 for the full resolution
+	 * @return
+	 * @throws IOException if the file can not be decoded
+	 */
+	public static BufferedImage read(Path imageFile, int subsampling) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile.toFile())) {
+			ImageReader reader = getReader(input, imageFile);
+			try {
+				reader.setInput(input, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				if(subsampling > 1)
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.reset();
+			}
+		}
+	}
+
+	/**
+	 * Read the width and height of an image file without decoding its pixels.
+	 *
+	 * @param imageFile
+	 * @return width and height
+	 * @throws IOException if the file can not be read
+	 */
+	public static int[] readSize(Path imageFile) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile.toFile())) {
+			ImageReader reader = getReader(input, imageFile);
+			try {
+				reader.setInput(input, true, true);
+				return new int[] { reader.getWidth(0), reader.getHeight(0) };
+			} finally {
+				reader.reset();
+			}
+		}
+	}
+
+	/**
+	 * Reader of the current thread for the suffix of the file. A new reader
+	 * is only looked up if the cached one can not decode the input.
+	 */
+	private static ImageReader getReader(ImageInputStream input, Path imageFile) throws IOException {
+		if(input == null)
+			throw new IOException("Can not open "+imageFile);
+
+		String name = imageFile.getFileName().toString();
+		String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+		ImageReader reader = readers.get().get(suffix);
+		if(reader != null && reader.getOriginatingProvider().canDecodeInput(input))
+			return reader;
+
+		Iterator<ImageReader> candidates = ImageIO.getImageReaders(input);
+		if(!candidates.hasNext())
+			throw new IOException("No decoder found for "+imageFile);
+		reader = candidates.next();
+		readers.get().put(suffix, reader);
+		return reader;
+	}
+
+	/**
+	 * ARGB values of all pixels, row by row. The common raster layouts of
+	 * decoded images are read directly without a color model conversion.
+	 *
+	 * @param image
+	 * @return
+	 */
+	public static int[] getArgb(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = new int[width * height];
+
+		boolean packed = image.getRaster().getParent() == null && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0;
+		if(packed && image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			for (int i = 0, j = 0; i < pixels.length; i++, j += 3)
+				pixels[i] = 0xFF000000 | ((data[j + 2] & 0xFF) << 16) | ((data[j + 1] & 0xFF) << 8) | (data[j] & 0xFF);
+		} else if(packed && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+			int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = 0xFF000000 | data[i];
+		} else
+			image.getRGB(0, 0, width, height, pixels, 0, width);
+		return pixels;
+	}
+}
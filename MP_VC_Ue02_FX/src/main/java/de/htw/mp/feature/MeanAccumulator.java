@@ -0,0 +1,265 @@
+package de.htw.mp.feature;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming sums for the mean color and the mean image of many images.
+ * Every image gets added and can be discarded afterwards, the memory usage
+ * only depends on the image size and not on the number of images. Two
+ * accumulators can be merged, which allows to sum up chunks of images in parallel.
+ *
+ * @author Nico Hezel
+ */
+public class MeanAccumulator {
+
+	protected int width = -1;
+	protected int height = -1;
+
+	/**
+	 * Interleaved RGB sums of all images
+	 */
+	protected long[] imageSum;
+
+	/**
+	 * RGB sums of all pixels
+	 */
+	protected long[] colorSum = new long[3];
+
+	protected long pixelCount;
+	protected int imageCount;
+
+	/**
+	 * False if images of different sizes were added, there is no mean image in this case
+	 */
+	protected boolean sameSize = true;
+
+	/**
+	 * Decode all image files in parallel chunks and sum them up.
+	 *
+	 * @param imageFiles
+	 * @return
+	 * @throws UncheckedIOException if an image could not be read
+	 */
+	public static MeanAccumulator of(Path... imageFiles) {
+		return Arrays.stream(imageFiles)
+					 .parallel()
+					 .collect(MeanAccumulator::new, (mean, file) -> mean.add(file), MeanAccumulator::merge);
+	}
+
+	/**
+	 * Decode an image file and add it.
+	 *
+	 * @param imageFile
+	 * @return this
+	 * @throws UncheckedIOException if the image could not be read
+	 */
+	public MeanAccumulator add(Path imageFile) {
+		try {
+			return add(ImageDecoder.read(imageFile));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Add all pixels of the image.
+	 *
+	 * @param image
+	 * @return this
+	 */
+	public MeanAccumulator add(BufferedImage image) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		long[] sum = prepare(w, h);
+
+		int[] pixels = ImageDecoder.getArgb(image);
+		int index = 0;
+		for (int pixel : pixels) {
+			int r = (pixel >> 16) & 0xFF;
+			int g = (pixel >> 8) & 0xFF;
+			int b = pixel & 0xFF;
+			colorSum[0] += r;
+			colorSum[1] += g;
+			colorSum[2] += b;
+			if(sum != null) {
+				sum[index]     += r;
+				sum[index + 1] += g;
+				sum[index + 2] += b;
+			}
+			index += 3;
+		}
+		pixelCount += (long) w * h;
+		imageCount++;
+		return this;
+	}
+
+	/**
+	 * Add an image given as interleaved RGB values.
+	 *
+	 * @param pixels
+	 * @param offset of the first value
+	 * @param width
+	 * @param height
+	 * @return this
+	 */
+	public MeanAccumulator add(byte[] pixels, int offset, int width, int height) {
+		long[] sum = prepare(width, height);
+
+		int length = width * height * 3;
+		for (int i = 0; i < length; i++) {
+			int value = pixels[offset + i] & 0xFF;
+			colorSum[i % 3] += value;
+			if(sum != null)
+				sum[i] += value;
+		}
+		pixelCount += (long) width * height;
+		imageCount++;
+		return this;
+	}
+
+	/**
+	 * Remove an image which was added before as interleaved RGB values.
+	 *
+	 * @param pixels
+	 * @param offset of the first value
+	 * @param width
+	 * @param height
+	 * @return this
+	 */
+	public MeanAccumulator remove(byte[] pixels, int offset, int width, int height) {
+		if(imageCount == 0)
+			throw new IllegalStateException("There is no image to remove");
+
+		long[] sum = (width == this.width && height == this.height) ? imageSum : null;
+		int length = width * height * 3;
+		for (int i = 0; i < length; i++) {
+			int value = pixels[offset + i] & 0xFF;
+			colorSum[i % 3] -= value;
+			if(sum != null)
+				sum[i] -= value;
+		}
+		pixelCount -= (long) width * height;
+		imageCount--;
+
+		// start over with the next image
+		if(imageCount == 0) {
+			width = height = -1;
+			imageSum = null;
+			sameSize = true;
+		}
+		return this;
+	}
+
+	/**
+	 * Add the sums of another accumulator.
+	 *
+	 * @param other
+	 * @return this
+	 */
+	public MeanAccumulator merge(MeanAccumulator other) {
+		if(other.imageCount == 0)
+			return this;
+
+		long[] sum = prepare(other.width, other.height);
+		if(sum != null && other.sameSize) {
+			for (int i = 0; i < sum.length; i++)
+				sum[i] += other.imageSum[i];
+		} else {
+			sameSize = false;
+			imageSum = null;
+		}
+
+		for (int c = 0; c < 3; c++)
+			colorSum[c] += other.colorSum[c];
+		pixelCount += other.pixelCount;
+		imageCount += other.imageCount;
+		return this;
+	}
+
+	/**
+	 * Make sure the image sums fit to an image of the given size.
+	 *
+	 * @return image sums or NULL if the sizes differ
+	 */
+	private long[] prepare(int w, int h) {
+		if(imageCount == 0 && imageSum == null && sameSize) {
+			width = w;
+			height = h;
+			imageSum = new long[w * h * 3];
+		} else if(w != width || h != height) {
+			sameSize = false;
+			imageSum = null;
+		}
+		return imageSum;
+	}
+
+	/**
+	 * Mean RGB values of all pixels
+	 *
+	 * @return
+	 */
+	public byte[] getMeanColor() {
+		byte[] mean = new byte[3];
+		if(pixelCount > 0)
+			for (int c = 0; c < 3; c++)
+				mean[c] = (byte) (colorSum[c] / pixelCount);
+		return mean;
+	}
+
+	/**
+	 * Interleaved RGB values of the mean image, or NULL if no image was added.
+	 *
+	 * @return
+	 * @throws IllegalStateException if the images have different sizes
+	 */
+	public byte[] getMeanImage() {
+		if(imageCount == 0)
+			return null;
+		if(!sameSize)
+			throw new IllegalStateException("The mean image needs images of the same size");
+
+		byte[] mean = new byte[imageSum.length];
+		for (int i = 0; i < mean.length; i++)
+			mean[i] = (byte) (imageSum[i] / imageCount);
+		return mean;
+	}
+
+	/**
+	 * Opaque ARGB values of the mean image, row by row, or NULL if no image was added.
+	 * The pixels are packed directly from the sums without an intermediate RGB array.
+	 *
+	 * @return
+	 * @throws IllegalStateException if the images have different sizes
+	 */
+	public int[] getMeanArgb() {
+		if(imageCount == 0)
+			return null;
+		if(!sameSize)
+			throw new IllegalStateException("The mean image needs images of the same size");
+
+		int[] argb = new int[width * height];
+		for (int i = 0, j = 0; i < argb.length; i++, j += 3) {
+			int r = (int) (imageSum[j] / imageCount);
+			int g = (int) (imageSum[j + 1] / imageCount);
+			int b = (int) (imageSum[j + 2] / imageCount);
+			argb[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+		}
+		return argb;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getImageCount() {
+		return imageCount;
+	}
+}
@@ -0,0 +1,29 @@
+package de.htw.mp.feature;
+
+/**
+ * Mean RGB value of all pixels
+ *
+ * @author Nico Hezel
+ */
+public class MeanColorExtractor implements FeatureExtractor {
+
+	@Override
+	public int getDimension(int imageWidth, int imageHeight) {
+		return 3;
+	}
+
+	@Override
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset) {
+		long red = 0, green = 0, blue = 0;
+		for (int pixel : pixels) {
+			red += (pixel >> 16) & 0xFF;
+			green += (pixel >> 8) & 0xFF;
+			blue += pixel & 0xFF;
+		}
+
+		int count = Math.max(1, pixels.length);
+		target[offset]     = (byte) (red / count);
+		target[offset + 1] = (byte) (green / count);
+		target[offset + 2] = (byte) (blue / count);
+	}
+}
@@ -0,0 +1,23 @@
+package de.htw.mp.feature;
+
+/**
+ * All pixels as interleaved RGB values. The mean of these vectors is the mean image.
+ *
+ * @author Nico Hezel
+ */
+public class MeanImageExtractor implements FeatureExtractor {
+
+	@Override
+	public int getDimension(int imageWidth, int imageHeight) {
+		return imageWidth * imageHeight * 3;
+	}
+
+	@Override
+	public void extract(int[] pixels, int width, int height, byte[] target, int offset) {
+		for (int i = 0; i < pixels.length; i++) {
+			target[offset + i * 3]     = (byte) (pixels[i] >> 16);
+			target[offset + i * 3 + 1] = (byte) (pixels[i] >> 8);
+			target[offset + i * 3 + 2] = (byte) pixels[i];
+		}
+	}
+}
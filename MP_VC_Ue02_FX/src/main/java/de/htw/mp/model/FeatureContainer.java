@@ -1,10 +1,8 @@
 package de.htw.mp.model;
 
-import javafx.scene.image.Image;
-import javafx.scene.paint.Color;
-
 /**
- * Simple POJO (Plain old Java object) for holding precalculated results.
+ * Lightweight handle to the precalculated features of an image or category.
+ * The feature values itself are stored in a row of a {@link FeatureStore}.
  * 
  * @author Nico Hezel
  */
@@ -12,14 +10,14 @@ public class FeatureContainer {
 
 	protected String name;
 	protected String category;
-	protected Color meanColor;
-	protected Image meanImage;
+	protected FeatureStore store;
+	protected int row;
 	
-	public FeatureContainer(String name, String category, Color meanColor, Image meanImage) {
+	public FeatureContainer(String name, String category, FeatureStore store, int row) {
 		this.name = name;
 		this.category = category;
-		this.meanColor = meanColor;
-		this.meanImage = meanImage;
+		this.store = store;
+		this.row = row;
 	}
 
 	public String getName() {
@@ -30,12 +28,12 @@ public class FeatureContainer {
 		return category;
 	}
 
-	public Color getMeanColor() {
-		return meanColor;
+	public FeatureStore getStore() {
+		return store;
 	}
 
-	public Image getMeanImage() {
-		return meanImage;
+	public int getRow() {
+		return row;
 	}
 	
 	@Override
@@ -0,0 +1,267 @@
+package de.htw.mp.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary index of all precalculated features of a data set directory.
+ * The file starts with a header containing the image size, the dimension of every
+ * feature type, the category table and one entry per row (name, category, whether
+ * the row is an image or a category and the file modification time and file size
+ * of images). The raw feature rows of each type follow. Index files are read through
+ * memory mappings, the pipeline keeps using the mapped rows of unchanged files and
+ * adds the rows of changed files to the same store, see {@link FeatureStore#map}.
+ *
+ * @author Nico Hezel
+ */
+public class FeatureIndexFile {
+
+	/**
+	 * Name of the index file inside of the data set directory
+	 */
+	public static final String FILE_NAME = "features.idx";
+
+	private static final int MAGIC = 0x4D504658; // "MPFX"
+	private static final int VERSION = 2;
+
+	/**
+	 * Kinds of rows, categories have no file of their own
+	 */
+	private static final byte IMAGE_ROW = 0;
+	private static final byte CATEGORY_ROW = 1;
+
+	protected FeatureStore store;
+	protected String[] names;
+	protected String[] categories;
+	protected byte[] kinds;
+	protected long[] lastModified;
+	protected long[] fileSizes;
+
+	protected Map<String, Integer> imageRows = new HashMap<>();
+	protected Map<String, Integer> categoryRows = new HashMap<>();
+	protected Map<String, Integer> categorySizes = new HashMap<>();
+
+	protected FeatureIndexFile(FeatureStore store, String[] names, String[] categories, byte[] kinds, long[] lastModified, long[] fileSizes) {
+		this.store = store;
+		this.names = names;
+		this.categories = categories;
+		this.kinds = kinds;
+		this.lastModified = lastModified;
+		this.fileSizes = fileSizes;
+
+		for (int row = 0; row < names.length; row++) {
+			if(kinds[row] == CATEGORY_ROW)
+				categoryRows.put(names[row], row);
+			else {
+				imageRows.put(names[row], row);
+				categorySizes.merge(categories[row], 1, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * Features of all rows in the index, mapped from the file
+	 *
+	 * @return
+	 */
+	public FeatureStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Row of the image if the file has not changed since the index was written.
+	 *
+	 * @param imageFile
+	 * @return row in {@link #getStore()} or -1 if the features need to be calculated again
+	 */
+	public int getImageRow(Path imageFile) {
+		Integer row = imageRows.get(imageFile.getFileName().toString());
+		if(row == null) return -1;
+
+		try {
+			if(Files.size(imageFile) != fileSizes[row] || Files.getLastModifiedTime(imageFile).toMillis() != lastModified[row])
+				return -1;
+		} catch (IOException e) {
+			return -1;
+		}
+		return row;
+	}
+
+	/**
+	 * Row of the category if none of its files has changed and no file was added or removed.
+	 *
+	 * @param category
+	 * @param categoryFiles
+	 * @return row in {@link #getStore()} or -1 if the features need to be calculated again
+	 */
+	public int getCategoryRow(String category, Path[] categoryFiles) {
+		Integer row = categoryRows.get(category);
+		if(row == null || categorySizes.getOrDefault(category, 0) != categoryFiles.length) return -1;
+
+		for (Path imageFile : categoryFiles) {
+			int imageRow = getImageRow(imageFile);
+			if(imageRow == -1 || !category.equals(categories[imageRow]))
+				return -1;
+		}
+		return row;
+	}
+
+	/**
+	 * Number of rows in the index
+	 *
+	 * @return
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Read an index file. Returns NULL if there is no index, the index is broken or
+	 * was written for other feature types.
+	 *
+	 * @param indexFile
+	 * @return
+	 */
+	public static FeatureIndexFile read(Path indexFile) {
+		try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			int imageWidth = buffer.getInt();
+			int imageHeight = buffer.getInt();
+			int rowCount = buffer.getInt();
+
+			// the index has to contain the same feature types with the same dimension
+			FeatureType[] types = FeatureType.values();
+			if(buffer.getInt() != types.length)
+				return null;
+			for (FeatureType type : types)
+				if(!type.name().equals(readString(buffer)) || buffer.getInt() != type.getExtractor().getDimension(imageWidth, imageHeight))
+					return null;
+
+			String[] categoryTable = new String[buffer.getInt()];
+			for (int i = 0; i < categoryTable.length; i++)
+				categoryTable[i] = readString(buffer);
+
+			String[] names = new String[rowCount];
+			String[] categories = new String[rowCount];
+			byte[] kinds = new byte[rowCount];
+			long[] lastModified = new long[rowCount];
+			long[] fileSizes = new long[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				names[row] = readString(buffer);
+				categories[row] = categoryTable[buffer.getInt()];
+				kinds[row] = buffer.get();
+				if(kinds[row] == IMAGE_ROW) {
+					lastModified[row] = buffer.getLong();
+					fileSizes[row] = buffer.getLong();
+				} else if(kinds[row] != CATEGORY_ROW)
+					return null;
+			}
+
+			// the raw rows are not copied, the rows of all types might not fit into a single mapping
+			FeatureStore store = FeatureStore.map(channel, buffer.position(), imageWidth, imageHeight, rowCount);
+			return new FeatureIndexFile(store, names, categories, kinds, lastModified, fileSizes);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Write the features of all categories and images into an index file, the
+	 * categories first. The images are files of the directory. The features may
+	 * be mapped from the index file which gets replaced.
+	 *
+	 * @param indexFile
+	 * @param directory of the image files
+	 * @param categoryFeatures
+	 * @param imageFeatures features of the same store as the categories
+	 * @throws IOException
+	 */
+	public static void write(Path indexFile, Path directory, Collection<FeatureContainer> categoryFeatures, Collection<FeatureContainer> imageFeatures) throws IOException {
+		List<FeatureContainer> rows = new ArrayList<>(categoryFeatures.size() + imageFeatures.size());
+		rows.addAll(categoryFeatures);
+		rows.addAll(imageFeatures);
+		FeatureStore store = rows.isEmpty() ? new FeatureStore(0, 0) : rows.get(0).getStore();
+
+		Map<String, Integer> categoryIndex = new HashMap<>();
+		for (FeatureContainer row : rows)
+			categoryIndex.putIfAbsent(row.getCategory(), categoryIndex.size());
+		String[] categoryTable = new String[categoryIndex.size()];
+		categoryIndex.forEach((category, index) -> categoryTable[index] = category);
+
+		// write into a temporary file first, a broken index should never replace a working one
+		Path tmpFile = indexFile.resolveSibling(indexFile.getFileName()+".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(store.getImageWidth());
+			out.writeInt(store.getImageHeight());
+			out.writeInt(rows.size());
+
+			FeatureType[] types = store.getTypes();
+			out.writeInt(types.length);
+			for (FeatureType type : types) {
+				writeString(out, type.name());
+				out.writeInt(store.getDimension(type));
+			}
+
+			out.writeInt(categoryTable.length);
+			for (String category : categoryTable)
+				writeString(out, category);
+
+			for (int i = 0; i < rows.size(); i++) {
+				FeatureContainer row = rows.get(i);
+				writeString(out, row.getName());
+				out.writeInt(categoryIndex.get(row.getCategory()));
+				if(i < categoryFeatures.size())
+					out.writeByte(CATEGORY_ROW);
+				else {
+					Path imageFile = directory.resolve(row.getName());
+					out.writeByte(IMAGE_ROW);
+					out.writeLong(Files.getLastModifiedTime(imageFile).toMillis());
+					out.writeLong(Files.size(imageFile));
+				}
+			}
+
+			for (FeatureType type : types) {
+				byte[] values = new byte[store.getDimension(type)];
+				for (FeatureContainer row : rows) {
+					store.get(type, row.getRow(), values, 0);
+					out.write(values);
+				}
+			}
+		}
+		Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,475 @@
+package de.htw.mp.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Packed storage for the precalculated features of a data set. The rows of every
+ * feature type are kept in chunks of contiguous rows, one row per image or category.
+ * Depending on the {@link Storage} the chunks are arrays on the Java heap, direct
+ * buffers or mapped from a temporary file. The off-heap storages keep the heap size
+ * independent of the number of images and the garbage collector never scans the values.
+ *
+ * The store contains all feature types registered at its creation, the extractor
+ * of a type defines its dimension. All values are unsigned bytes.
+ *
+ * A closed store releases its temporary file, the chunks stay readable until
+ * they are garbage collected.
+ *
+ * @author Nico Hezel
+ */
+public class FeatureStore implements Closeable {
+
+	/**
+	 * Where the feature values are kept
+	 */
+	public static enum Storage {
+
+		/**
+		 * Byte arrays on the Java heap
+		 */
+		HEAP,
+
+		/**
+		 * Direct buffers outside of the heap, limited by -XX:MaxDirectMemorySize
+		 */
+		DIRECT,
+
+		/**
+		 * Temporary file mapped into memory, the operating system pages the rows in and out
+		 */
+		MAPPED;
+
+		/**
+		 * Heap storage as long as the features need at most a quarter
+		 * of the maximum heap size, a mapped file otherwise.
+		 *
+		 * @param bytes size of all features
+		 * @return
+		 */
+		public static Storage forSize(long bytes) {
+			return (bytes <= Runtime.getRuntime().maxMemory() / 4) ? HEAP : MAPPED;
+		}
+	}
+
+	/**
+	 * Maximal number of bytes of a chunk
+	 */
+	protected static final int CHUNK_BYTES = 64 * 1024 * 1024;
+
+	protected int imageWidth;
+	protected int imageHeight;
+	protected Storage storage;
+
+	/**
+	 * Feature types of this store
+	 */
+	protected FeatureType[] types;
+
+	/**
+	 * Number of bytes per row for each feature type
+	 */
+	protected int[] dimensions;
+
+	/**
+	 * Number of rows per chunk for each feature type
+	 */
+	protected int[] chunkRows;
+
+	/**
+	 * Chunks of packed rows for each feature type
+	 */
+	protected ByteBuffer[][] chunks;
+
+	/**
+	 * Temporary file of the mapped storage and its used size. The path is
+	 * NULL if the file could be deleted while it was open.
+	 */
+	protected FileChannel file;
+	protected Path filePath;
+	protected long fileSize;
+
+	/**
+	 * Number of rows in use
+	 */
+	protected int size;
+
+	/**
+	 * Number of rows which fit into the chunks
+	 */
+	protected int capacity;
+
+	public FeatureStore(int imageWidth, int imageHeight) {
+		this(imageWidth, imageHeight, 16);
+	}
+
+	public FeatureStore(int imageWidth, int imageHeight, int capacity) {
+		this(imageWidth, imageHeight, capacity, Storage.HEAP);
+	}
+
+	/**
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param capacity number of rows reserved in advance
+	 * @param storage where the feature values are kept
+	 */
+	public FeatureStore(int imageWidth, int imageHeight, int capacity, Storage storage) {
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.storage = storage;
+
+		this.types = FeatureType.values();
+		this.dimensions = new int[types.length];
+		this.chunkRows = new int[types.length];
+		for (FeatureType type : types) {
+			int dim = type.getExtractor().getDimension(imageWidth, imageHeight);
+			this.dimensions[type.ordinal()] = dim;
+			this.chunkRows[type.ordinal()] = Math.max(1, CHUNK_BYTES / Math.max(1, dim));
+		}
+
+		this.chunks = new ByteBuffer[types.length][0];
+		reserve(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Store over the rows of a file, e.g. an index file. The rows of every feature type
+	 * follow each other, the types one after another starting at the position. The file
+	 * is mapped read only chunk by chunk, the rows are not copied. A mapped chunk gets
+	 * copied into a temporary file once one of its rows is written, added rows are kept
+	 * there as well. The mappings stay valid after the channel is closed.
+	 *
+	 * @param channel
+	 * @param position of the first row of the first feature type
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param rows number of rows per feature type
+	 * @return
+	 * @throws IOException if the file is too small
+	 */
+	public static FeatureStore map(FileChannel channel, long position, int imageWidth, int imageHeight, int rows) throws IOException {
+		FeatureStore store = new FeatureStore(imageWidth, imageHeight, 1, Storage.HEAP);
+		for (int t = 0; t < store.types.length; t++) {
+			int perChunk = store.chunkRows[t];
+			ByteBuffer[] typeChunks = new ByteBuffer[(rows + perChunk - 1) / perChunk];
+			for (int c = 0; c < typeChunks.length; c++) {
+				long bytes = (long) Math.min(perChunk, rows - c * perChunk) * store.dimensions[t];
+				typeChunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+				position += bytes;
+			}
+			store.chunks[t] = typeChunks;
+		}
+		store.storage = Storage.MAPPED;
+		store.size = rows;
+		store.capacity = rows;
+		return store;
+	}
+
+	/**
+	 * Bytes needed for the given number of rows, e.g. to choose a {@link Storage}
+	 *
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param rows
+	 * @return
+	 */
+	public static long getSize(int imageWidth, int imageHeight, int rows) {
+		long rowSize = 0;
+		for (FeatureType type : FeatureType.values())
+			rowSize += type.getExtractor().getDimension(imageWidth, imageHeight);
+		return rowSize * rows;
+	}
+
+	/**
+	 * Append a copy of a row of another store and return a handle to it.
+	 *
+	 * @param name
+	 * @param category
+	 * @param source store with the same image size
+	 * @param sourceRow
+	 * @return handle of the new row
+	 */
+	public FeatureContainer add(String name, String category, FeatureStore source, int sourceRow) {
+		FeatureContainer feature = add(name, category);
+		copy(source, sourceRow, feature.getRow());
+		return feature;
+	}
+
+	/**
+	 * Append a row with all values set to zero and return a handle to it.
+	 * The values can be filled in later, also from multiple threads as long as no
+	 * rows are added meanwhile and every thread writes different rows.
+	 *
+	 * @param name
+	 * @param category
+	 * @return handle of the new row
+	 */
+	public FeatureContainer add(String name, String category) {
+		if(size == capacity)
+			reserve(capacity * 2);
+		return new FeatureContainer(name, category, this, size++);
+	}
+
+	/**
+	 * Copy all features of a row of another store into the given row.
+	 *
+	 * @param source store with the same image size and feature types
+	 * @param sourceRow
+	 * @param row
+	 */
+	public void copy(FeatureStore source, int sourceRow, int row) {
+		if(source.imageWidth != imageWidth || source.imageHeight != imageHeight)
+			throw new IllegalArgumentException("Image size "+source.imageWidth+"x"+source.imageHeight+" differs from "+imageWidth+"x"+imageHeight);
+		if(source.types.length != types.length)
+			throw new IllegalArgumentException("Feature types "+Arrays.toString(source.types)+" differ from "+Arrays.toString(types));
+
+		for (FeatureType type : types)
+			set(type, row, source.getBuffer(type, sourceRow), source.getOffset(type, sourceRow));
+	}
+
+	/**
+	 * Copy the values of a feature into the given row.
+	 *
+	 * @param featureType
+	 * @param row
+	 * @param values
+	 */
+	public void set(FeatureType featureType, int row, byte[] values) {
+		checkDimension(featureType, values);
+		ByteBuffer target = getWritableBuffer(featureType, row).duplicate();
+		target.position(getOffset(featureType, row));
+		target.put(values);
+	}
+
+	/**
+	 * Copy the values of a feature from a buffer into the given row.
+	 *
+	 * @param featureType
+	 * @param row
+	 * @param source
+	 * @param sourceOffset of the first value inside of the source
+	 */
+	public void set(FeatureType featureType, int row, ByteBuffer source, int sourceOffset) {
+		int dim = getDimension(featureType);
+		ByteBuffer values = source.duplicate();
+		values.limit(sourceOffset + dim);
+		values.position(sourceOffset);
+		ByteBuffer target = getWritableBuffer(featureType, row).duplicate();
+		target.position(getOffset(featureType, row));
+		target.put(values);
+	}
+
+	/**
+	 * Copy the values of a feature into an array
+	 *
+	 * @param featureType
+	 * @param row
+	 * @param target
+	 * @param targetOffset of the first value inside of the target
+	 */
+	public void get(FeatureType featureType, int row, byte[] target, int targetOffset) {
+		ByteBuffer buffer = getBuffer(featureType, row);
+		int offset = getOffset(featureType, row);
+		int dim = dimensions[featureType.ordinal()];
+		if(buffer.hasArray())
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, target, targetOffset, dim);
+		else {
+			ByteBuffer values = buffer.duplicate();
+			values.position(offset);
+			values.get(target, targetOffset, dim);
+		}
+	}
+
+	/**
+	 * Copy of the values of a feature
+	 *
+	 * @param featureType
+	 * @param row
+	 * @return
+	 */
+	public byte[] get(FeatureType featureType, int row) {
+		byte[] values = new byte[getDimension(featureType)];
+		get(featureType, row, values, 0);
+		return values;
+	}
+
+	private void checkDimension(FeatureType featureType, byte[] values) {
+		if(values.length != getDimension(featureType))
+			throw new IllegalArgumentException(featureType+" needs "+getDimension(featureType)+" values but got "+values.length);
+	}
+
+	/**
+	 * Make room for the given number of rows, e.g. before the rows get added and filled
+	 * by multiple threads. Only the last chunk of a type grows and gets copied, all full
+	 * chunks stay where they are.
+	 *
+	 * @param rows
+	 */
+	public synchronized void reserve(int rows) {
+		if(rows <= capacity) return;
+		for (int t = 0; t < types.length; t++) {
+			int perChunk = chunkRows[t];
+			ByteBuffer[] typeChunks = Arrays.copyOf(chunks[t], (rows + perChunk - 1) / perChunk);
+			for (int c = 0; c < typeChunks.length; c++) {
+				int chunkSize = (storage == Storage.MAPPED) ? perChunk : Math.min(perChunk, rows - c * perChunk);
+				int bytes = chunkSize * dimensions[t];
+				ByteBuffer old = typeChunks[c];
+				if(old != null && old.capacity() >= bytes)
+					continue;
+
+				ByteBuffer chunk = allocate(bytes);
+				if(old != null) {
+					chunk.put(old.duplicate());
+					chunk.clear();
+				}
+				typeChunks[c] = chunk;
+			}
+			chunks[t] = typeChunks;
+		}
+		capacity = rows;
+	}
+
+	/**
+	 * Chunk of the row which can be written, a read only chunk of a mapped file gets copied first
+	 */
+	private ByteBuffer getWritableBuffer(FeatureType featureType, int row) {
+		ByteBuffer chunk = getBuffer(featureType, row);
+		if(!chunk.isReadOnly())
+			return chunk;
+
+		int t = featureType.ordinal();
+		return copyChunk(t, row / chunkRows[t]);
+	}
+
+	private synchronized ByteBuffer copyChunk(int type, int index) {
+		ByteBuffer old = chunks[type][index];
+		if(!old.isReadOnly())
+			return old;
+
+		ByteBuffer chunk = allocate(old.capacity());
+		chunk.put(old.duplicate());
+		chunk.clear();
+		chunks[type][index] = chunk;
+		return chunk;
+	}
+
+	private ByteBuffer allocate(int bytes) {
+		switch (storage) {
+			case DIRECT:
+				return ByteBuffer.allocateDirect(bytes);
+			case MAPPED:
+				try {
+					if(file == null) {
+						// the mapping stays valid after the file is deleted, if the file system allows it
+						Path path = Files.createTempFile("features", ".tmp");
+						file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+						try {
+							Files.delete(path);
+						} catch (IOException e) {
+							filePath = path;
+							path.toFile().deleteOnExit();
+						}
+					}
+					ByteBuffer chunk = file.map(FileChannel.MapMode.READ_WRITE, fileSize, bytes);
+					fileSize += bytes;
+					return chunk;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			default:
+				return ByteBuffer.wrap(new byte[bytes]);
+		}
+	}
+
+	/**
+	 * Close and delete the temporary file of the mapped storage. A file which
+	 * is still mapped on this platform gets deleted when the program exits.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(file == null) return;
+		file.close();
+		file = null;
+		if(filePath != null) {
+			try {
+				Files.deleteIfExists(filePath);
+			} catch (IOException e) {
+				filePath.toFile().deleteOnExit();
+			}
+			filePath = null;
+		}
+	}
+
+	/**
+	 * Number of bytes per row of the feature type
+	 *
+	 * @param featureType
+	 * @return
+	 */
+	public int getDimension(FeatureType featureType) {
+		checkType(featureType);
+		return dimensions[featureType.ordinal()];
+	}
+
+	/**
+	 * Chunk containing the row of the feature type, the row starts at {@link #getOffset(FeatureType, int)}.
+	 * The buffer is shared and must only be accessed with absolute positions.
+	 *
+	 * @param featureType
+	 * @param row
+	 * @return
+	 */
+	public ByteBuffer getBuffer(FeatureType featureType, int row) {
+		checkType(featureType);
+		int t = featureType.ordinal();
+		return chunks[t][row / chunkRows[t]];
+	}
+
+	/**
+	 * Start of a row inside of {@link #getBuffer(FeatureType, int)}
+	 *
+	 * @param featureType
+	 * @param row
+	 * @return
+	 */
+	public int getOffset(FeatureType featureType, int row) {
+		int t = featureType.ordinal();
+		return (row % chunkRows[t]) * dimensions[t];
+	}
+
+	private void checkType(FeatureType featureType) {
+		if(featureType.ordinal() >= types.length)
+			throw new IllegalArgumentException(featureType+" was registered after the creation of this store");
+	}
+
+	/**
+	 * All feature types of this store
+	 *
+	 * @return
+	 */
+	public FeatureType[] getTypes() {
+		return types.clone();
+	}
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	public int getImageWidth() {
+		return imageWidth;
+	}
+
+	public int getImageHeight() {
+		return imageHeight;
+	}
+
+	public int size() {
+		return size;
+	}
+}
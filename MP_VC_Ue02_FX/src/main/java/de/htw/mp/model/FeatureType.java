@@ -0,0 +1,106 @@
+package de.htw.mp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.htw.mp.feature.ColorHistogramExtractor;
+import de.htw.mp.feature.ColorLayoutExtractor;
+import de.htw.mp.feature.FeatureExtractor;
+import de.htw.mp.feature.GrayThumbnailExtractor;
+import de.htw.mp.feature.MeanColorExtractor;
+import de.htw.mp.feature.MeanImageExtractor;
+
+/**
+ * Type of features. Every type has an extractor which calculates the feature
+ * values of an image and the distance between two of them. New types can be
+ * registered before a data set gets opened.
+ *
+ * @author Nico Hezel
+ */
+public final class FeatureType {
+
+	private static final List<FeatureType> registry = new ArrayList<>();
+
+	public static final FeatureType MeanColor = register("Mean Color", new MeanColorExtractor());
+	public static final FeatureType MeanImage = register("Mean Image", new MeanImageExtractor());
+	public static final FeatureType ColorHistogram = register("Color Histogram", new ColorHistogramExtractor(8));
+	public static final FeatureType GrayThumbnail = register("Gray Thumbnail", new GrayThumbnailExtractor(16));
+	public static final FeatureType ColorLayout = register("Color Layout", new ColorLayoutExtractor(4));
+
+	private final String name;
+	private final String displayName;
+	private final int ordinal;
+	private final FeatureExtractor extractor;
+
+	private FeatureType(String displayName, int ordinal, FeatureExtractor extractor) {
+		this.name = displayName.replaceAll(" ", "");
+		this.displayName = displayName;
+		this.ordinal = ordinal;
+		this.extractor = extractor;
+	}
+
+	/**
+	 * Add a new feature type. Feature stores created before the registration do not contain it.
+	 *
+	 * @param displayName
+	 * @param extractor
+	 * @return the new type
+	 * @throws IllegalArgumentException if the name is already in use
+	 */
+	public static synchronized FeatureType register(String displayName, FeatureExtractor extractor) {
+		FeatureType type = new FeatureType(displayName, registry.size(), extractor);
+		for (FeatureType other : registry)
+			if(other.name.equalsIgnoreCase(type.name))
+				throw new IllegalArgumentException("Feature type "+type.name+" already exists");
+		registry.add(type);
+		return type;
+	}
+
+	/**
+	 * All registered types in the order of their registration
+	 *
+	 * @return
+	 */
+	public static synchronized FeatureType[] values() {
+		return registry.toArray(new FeatureType[registry.size()]);
+	}
+
+	public static synchronized FeatureType get(String value) {
+		String name = value.replaceAll(" ", "");
+		for (FeatureType type : registry)
+			if(type.name.equals(name))
+				return type;
+		throw new IllegalArgumentException("No feature type "+value);
+	}
+
+	/**
+	 * Name without spaces, used inside of index files
+	 *
+	 * @return
+	 */
+	public String name() {
+		return name;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Position in {@link #values()}
+	 *
+	 * @return
+	 */
+	public int ordinal() {
+		return ordinal;
+	}
+
+	public FeatureExtractor getExtractor() {
+		return extractor;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,120 @@
+package de.htw.mp.retrieval;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import de.htw.mp.feature.FeatureExtractor;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Linear search of many queries at once. Queries and database are split into
+ * blocks which fit into the cache together. Every database block is loaded once
+ * per query block and compared against all of its queries, instead of streaming
+ * the whole database through the cache for every single query.
+ * The results are the same as of a linear scan per query.
+ *
+ * @author Nico Hezel
+ */
+public final class BatchSearch {
+
+	/**
+	 * Feature bytes of a query or database block
+	 */
+	public static final int BLOCK_BYTES = 128 * 1024;
+
+	private BatchSearch() {
+	}
+
+	/**
+	 * Number of feature vectors per block
+	 *
+	 * @param dimension bytes per feature vector
+	 * @return
+	 */
+	public static int blockSize(int dimension) {
+		return Math.max(1, BLOCK_BYTES / Math.max(1, dimension));
+	}
+
+	/**
+	 * Find the k database elements nearest to each query. The query blocks are searched in parallel.
+	 * Elements with the same distance are ordered by their position in the database.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k
+	 * @return database indices for each query, best first
+	 */
+	public static int[][] searchTopK(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k) {
+		return searchTopK(queries, database, featureType, k, null);
+	}
+
+	/**
+	 * Find the k database elements nearest to each query together with their distances,
+	 * see {@link #searchTopK(FeatureContainer[], FeatureContainer[], FeatureType, int)}.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k
+	 * @param distances receives the distances of the returned elements for each query, can be null
+	 * @return database indices for each query, best first
+	 */
+	public static int[][] searchTopK(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k, long[][] distances) {
+		int[][] result = new int[queries.length][];
+		if(queries.length == 0)
+			return result;
+
+		FeatureExtractor extractor = featureType.getExtractor();
+		int dim = queries[0].getStore().getDimension(featureType);
+		int block = blockSize(dim);
+
+		// resolve the rows once, the blocks are accessed many times
+		ByteBuffer[] queryData = new ByteBuffer[queries.length];
+		int[] queryOffsets = new int[queries.length];
+		resolve(queries, featureType, queryData, queryOffsets);
+		ByteBuffer[] databaseData = new ByteBuffer[database.length];
+		int[] databaseOffsets = new int[database.length];
+		resolve(database, featureType, databaseData, databaseOffsets);
+
+		int queryBlocks = (queries.length + block - 1) / block;
+		IntStream.range(0, queryBlocks).parallel().forEach(b -> {
+			int queryStart = b * block;
+			int queryEnd = Math.min(queryStart + block, queries.length);
+			TopKHeap[] heaps = new TopKHeap[queryEnd - queryStart];
+			for (int q = 0; q < heaps.length; q++)
+				heaps[q] = new TopKHeap(Math.min(k, database.length));
+
+			for (int databaseStart = 0; databaseStart < database.length; databaseStart += block) {
+				int databaseEnd = Math.min(databaseStart + block, database.length);
+				for (int q = queryStart; q < queryEnd; q++) {
+					TopKHeap heap = heaps[q - queryStart];
+					for (int i = databaseStart; i < databaseEnd; i++)
+						heap.offer(extractor.distance(databaseData[i], databaseOffsets[i], queryData[q], queryOffsets[q], dim), i);
+				}
+			}
+
+			for (int q = queryStart; q < queryEnd; q++) {
+				TopKHeap heap = heaps[q - queryStart];
+				if(distances == null)
+					result[q] = heap.drainSorted();
+				else
+					result[q] = heap.drainSorted(distances[q] = new long[heap.size()]);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Buffer and offset of every feature vector
+	 */
+	static void resolve(FeatureContainer[] features, FeatureType featureType, ByteBuffer[] data, int[] offsets) {
+		for (int i = 0; i < features.length; i++) {
+			FeatureStore store = features[i].getStore();
+			data[i] = store.getBuffer(featureType, features[i].getRow());
+			offsets[i] = store.getOffset(featureType, features[i].getRow());
+		}
+	}
+}
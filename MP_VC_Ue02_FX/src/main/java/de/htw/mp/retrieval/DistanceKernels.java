@@ -0,0 +1,139 @@
+package de.htw.mp.retrieval;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Distance functions between two packed rows of unsigned bytes.
+ * The loops work on blocks which are summed up in int registers and only
+ * added to the long result afterwards. Without the long conversion and
+ * without branches inside the inner loops the JIT can unroll and vectorize them.
+ * Rows in heap buffers are compared as arrays, off-heap rows with absolute reads.
+ *
+ * @author Nico Hezel
+ */
+public final class DistanceKernels {
+
+	/**
+	 * Number of values per block, the int sums of L1 and squared L2 can not overflow
+	 */
+	private static final int BLOCK = 32 * 1024;
+
+	private DistanceKernels() {
+	}
+
+	/**
+	 * Sum of the absolute differences
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public static long l1(byte[] d1, int offset1, byte[] d2, int offset2, int length) {
+		long distance = 0;
+		for (int start = 0; start < length; start += BLOCK) {
+			int end = Math.min(length, start + BLOCK);
+			int sum = 0;
+			for (int i = start; i < end; i++) {
+				int diff = (d1[offset1 + i] & 0xFF) - (d2[offset2 + i] & 0xFF);
+				sum += Math.abs(diff);
+			}
+			distance += sum;
+		}
+		return distance;
+	}
+
+	/**
+	 * Sum of the absolute differences of two rows in buffers
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public static long l1(ByteBuffer d1, int offset1, ByteBuffer d2, int offset2, int length) {
+		if(d1.hasArray() && d2.hasArray())
+			return l1(d1.array(), d1.arrayOffset() + offset1, d2.array(), d2.arrayOffset() + offset2, length);
+
+		long distance = 0;
+		for (int start = 0; start < length; start += BLOCK) {
+			int end = Math.min(length, start + BLOCK);
+			int sum = 0;
+			for (int i = start; i < end; i++) {
+				int diff = (d1.get(offset1 + i) & 0xFF) - (d2.get(offset2 + i) & 0xFF);
+				sum += Math.abs(diff);
+			}
+			distance += sum;
+		}
+		return distance;
+	}
+
+	/**
+	 * Sum of the squared differences. Has the same order as the L2 distance but needs no square root.
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public static long squaredL2(byte[] d1, int offset1, byte[] d2, int offset2, int length) {
+		long distance = 0;
+		for (int start = 0; start < length; start += BLOCK) {
+			int end = Math.min(length, start + BLOCK);
+			int sum = 0;
+			for (int i = start; i < end; i++) {
+				int diff = (d1[offset1 + i] & 0xFF) - (d2[offset2 + i] & 0xFF);
+				sum += diff * diff;
+			}
+			distance += sum;
+		}
+		return distance;
+	}
+
+	/**
+	 * Sum of the squared differences of two rows in buffers
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public static long squaredL2(ByteBuffer d1, int offset1, ByteBuffer d2, int offset2, int length) {
+		if(d1.hasArray() && d2.hasArray())
+			return squaredL2(d1.array(), d1.arrayOffset() + offset1, d2.array(), d2.arrayOffset() + offset2, length);
+
+		long distance = 0;
+		for (int start = 0; start < length; start += BLOCK) {
+			int end = Math.min(length, start + BLOCK);
+			int sum = 0;
+			for (int i = start; i < end; i++) {
+				int diff = (d1.get(offset1 + i) & 0xFF) - (d2.get(offset2 + i) & 0xFF);
+				sum += diff * diff;
+			}
+			distance += sum;
+		}
+		return distance;
+	}
+
+	/**
+	 * Euclidean distance
+	 *
+	 * @param d1
+	 * @param offset1
+	 * @param d2
+	 * @param offset2
+	 * @param length number of values
+	 * @return
+	 */
+	public static double l2(byte[] d1, int offset1, byte[] d2, int offset2, int length) {
+		return Math.sqrt(squaredL2(d1, offset1, d2, offset2, length));
+	}
+}
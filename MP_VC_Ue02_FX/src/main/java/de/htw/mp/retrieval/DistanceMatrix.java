@@ -0,0 +1,208 @@
+package de.htw.mp.retrieval;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import de.htw.mp.feature.FeatureExtractor;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Exact distances between queries and the elements of a database, e.g. all images against
+ * all images or all images against all categories. Every query has one row with its distance
+ * to every database element, the rows are stored one after another in a long array.
+ * Searches in the matrix return the same rankings as a linear scan.
+ *
+ * The rows are calculated in tiles of a query block and a database block which fit into
+ * the cache together. If the queries are the database itself, distances of already
+ * calculated rows are reused for the mirrored entries.
+ *
+ * @author Nico Hezel
+ */
+public class DistanceMatrix {
+
+	/**
+	 * Part of the maximal heap size a matrix may use
+	 */
+	private static final int MAX_HEAP_FRACTION = 4;
+
+	protected final FeatureContainer[] queries;
+	protected final FeatureContainer[] database;
+	protected final FeatureType featureType;
+	protected final long[] distances;
+
+	/**
+	 * Which rows are calculated already
+	 */
+	protected final boolean[] calculated;
+
+	/**
+	 * Matrix row of every feature store row, -1 for rows which are no query
+	 */
+	protected final int[] queryRows;
+
+	/**
+	 * Create an empty matrix, no distance gets calculated yet.
+	 *
+	 * @param queries elements of the same feature store
+	 * @param database
+	 * @param featureType
+	 * @throws IllegalArgumentException if the matrix would be larger than {@link #fits(int, int)} allows
+	 */
+	public DistanceMatrix(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType) {
+		if(!fits(queries.length, database.length))
+			throw new IllegalArgumentException("Distance matrix of "+queries.length+"x"+database.length+" elements is too large");
+
+		this.queries = queries;
+		this.database = database;
+		this.featureType = featureType;
+		this.distances = new long[queries.length * database.length];
+		this.calculated = new boolean[queries.length];
+
+		int rows = 0;
+		for (FeatureContainer query : queries)
+			rows = Math.max(rows, query.getRow() + 1);
+		this.queryRows = new int[rows];
+		Arrays.fill(queryRows, -1);
+		for (int i = 0; i < queries.length; i++)
+			queryRows[queries[i].getRow()] = i;
+	}
+
+	/**
+	 * Can a matrix of the given size be created, it needs at most a quarter of the maximal heap
+	 *
+	 * @param queryCount
+	 * @param databaseSize
+	 * @return
+	 */
+	public static boolean fits(int queryCount, int databaseSize) {
+		long entries = (long) queryCount * databaseSize;
+		return entries <= Integer.MAX_VALUE - 8 && entries * Long.BYTES <= Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION;
+	}
+
+	/**
+	 * Calculate the rows of all queries in parallel
+	 */
+	public void calculate() {
+		calculate(0, queries.length);
+	}
+
+	/**
+	 * Calculate the rows of the queries between from (inclusive) and to (exclusive) in parallel.
+	 * Rows which are calculated already are skipped, entries which are mirrored by a
+	 * calculated row are copied.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	public synchronized void calculate(int from, int to) {
+		if(from >= to) return;
+		FeatureExtractor extractor = featureType.getExtractor();
+		int dim = queries[0].getStore().getDimension(featureType);
+		int block = BatchSearch.blockSize(dim);
+		int size = database.length;
+		boolean mirrored = (queries == database);
+
+		// resolve the rows once, the blocks are accessed many times
+		ByteBuffer[] queryData = new ByteBuffer[queries.length];
+		int[] queryOffsets = new int[queries.length];
+		BatchSearch.resolve(queries, featureType, queryData, queryOffsets);
+		ByteBuffer[] databaseData = mirrored ? queryData : new ByteBuffer[size];
+		int[] databaseOffsets = mirrored ? queryOffsets : new int[size];
+		if(!mirrored)
+			BatchSearch.resolve(database, featureType, databaseData, databaseOffsets);
+
+		int queryBlocks = (to - from + block - 1) / block;
+		IntStream.range(0, queryBlocks).parallel().forEach(b -> {
+			int queryStart = from + b * block;
+			int queryEnd = Math.min(queryStart + block, to);
+			for (int databaseStart = 0; databaseStart < size; databaseStart += block) {
+				int databaseEnd = Math.min(databaseStart + block, size);
+				for (int q = queryStart; q < queryEnd; q++) {
+					if(calculated[q]) continue;
+					int offset = q * size;
+					for (int i = databaseStart; i < databaseEnd; i++) {
+						if(mirrored && calculated[i])
+							distances[offset + i] = distances[i * size + q];
+						else
+							distances[offset + i] = extractor.distance(databaseData[i], databaseOffsets[i], queryData[q], queryOffsets[q], dim);
+					}
+				}
+			}
+		});
+		Arrays.fill(calculated, from, to, true);
+	}
+
+	/**
+	 * Is the row of the query calculated
+	 *
+	 * @param query index in the queries of the matrix
+	 * @return
+	 */
+	public synchronized boolean isCalculated(int query) {
+		return calculated[query];
+	}
+
+	/**
+	 * Offer the distances between a query of the matrix and all database elements to a heap.
+	 * The heap keeps the best elements, elements with the same distance are ordered by their
+	 * position in the database. The row of the query has to be calculated.
+	 *
+	 * @param query index in the queries of the matrix, see {@link #indexOf(FeatureContainer)}
+	 * @param heap receives the database indices and distances
+	 */
+	public void search(int query, TopKHeap heap) {
+		search(query, 0, database.length, heap);
+	}
+
+	/**
+	 * Offer the distances between a query of the matrix and the database elements between
+	 * from (inclusive) and to (exclusive) to a heap, see {@link #search(int, TopKHeap)}.
+	 *
+	 * @param query index in the queries of the matrix
+	 * @param from
+	 * @param to
+	 * @param heap receives the database indices and distances
+	 */
+	public void search(int query, int from, int to, TopKHeap heap) {
+		int offset = query * database.length;
+		for (int i = from; i < to; i++)
+			heap.offer(distances[offset + i], i);
+	}
+
+	/**
+	 * Distance between a query and a database element
+	 *
+	 * @param query index in the queries of the matrix
+	 * @param element index in the database
+	 * @return
+	 */
+	public long get(int query, int element) {
+		return distances[query * database.length + element];
+	}
+
+	/**
+	 * Position of a query in the matrix
+	 *
+	 * @param query
+	 * @return index or -1 if the element is no query of this matrix
+	 */
+	public int indexOf(FeatureContainer query) {
+		if(queries.length == 0 || query.getStore() != queries[0].getStore() || query.getRow() >= queryRows.length)
+			return -1;
+		int index = queryRows[query.getRow()];
+		return (index >= 0 && queries[index] == query) ? index : -1;
+	}
+
+	/**
+	 * Was this matrix built for exactly this database array and feature type
+	 *
+	 * @param database
+	 * @param featureType
+	 * @return
+	 */
+	public boolean isBuiltFor(FeatureContainer[] database, FeatureType featureType) {
+		return this.database == database && this.featureType == featureType;
+	}
+}
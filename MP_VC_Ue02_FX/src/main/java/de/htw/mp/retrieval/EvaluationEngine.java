@@ -0,0 +1,272 @@
+package de.htw.mp.retrieval;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Evaluates the retrieval and classification of all queries against a database.
+ * The queries are split with fork-join and the queries of every task are retrieved in
+ * one batch and classified by the {@link KnnClassifier} of the worker thread, which votes
+ * with category ids. Every task counts into its own confusion matrix and the partial
+ * counts are summed up when the tasks are joined.
+ *
+ * @author Nico Hezel
+ */
+public class EvaluationEngine {
+
+	/**
+	 * Finds the k best database elements and their distances for many queries at once
+	 */
+	@FunctionalInterface
+	public static interface BatchRetriever {
+		public List<Ranking> retrieveBatch(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k);
+	}
+
+	protected final BatchRetriever retriever;
+	protected final KnnClassifier.Voting voting;
+	protected final ForkJoinPool pool;
+
+	/**
+	 * @param retriever finds the neighbours of the queries of a task
+	 * @param voting of the classifiers
+	 * @param pool
+	 */
+	public EvaluationEngine(BatchRetriever retriever, KnnClassifier.Voting voting, ForkJoinPool pool) {
+		this.retriever = retriever;
+		this.voting = voting;
+		this.pool = pool;
+	}
+
+	/**
+	 * Predict for every query a category and compare it against the real category.
+	 * In leave-one-out mode the query itself is not used as a neighbour,
+	 * even if it is part of the database.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k nearest neighbours
+	 * @param leaveOneOut
+	 * @return
+	 */
+	public EvaluationResult evaluate(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k, boolean leaveOneOut) {
+
+		// index all categories which can occur
+		TreeSet<String> names = new TreeSet<>();
+		for (FeatureContainer query : queries)
+			names.add(query.getCategory());
+		for (FeatureContainer element : database)
+			names.add(element.getCategory());
+		String[] categories = names.toArray(new String[0]);
+		Map<String, Integer> categoryIndex = new HashMap<>();
+		for (int i = 0; i < categories.length; i++)
+			categoryIndex.put(categories[i], i);
+
+		// the ids of the classifiers are the indices of the categories
+		ThreadLocal<KnnClassifier> classifiers = ThreadLocal.withInitial(() -> new KnnClassifier(voting, categories));
+		int threshold = Math.max(1, queries.length / (pool.getParallelism() * 8));
+		EvaluationTask task = new EvaluationTask(queries, database, featureType, k, leaveOneOut, categories.length, categoryIndex, classifiers, threshold, 0, queries.length);
+		Counts counts = pool.invoke(task);
+
+		int[][] confusionMatrix = new int[categories.length][categories.length];
+		for (int i = 0; i < categories.length; i++)
+			System.arraycopy(counts.confusion, i * categories.length, confusionMatrix[i], 0, categories.length);
+
+		return new EvaluationResult(categories, confusionMatrix, queries.length, counts.correct);
+	}
+
+	/**
+	 * Accuracy of the classification for every k from 1 to kMax. The kMax best elements
+	 * are retrieved only once per query, every k is classified from this ranking.
+	 * Costs about as much as one evaluation with kMax neighbours.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param kMax largest number of nearest neighbours
+	 * @param leaveOneOut
+	 * @return accuracy of k at index k-1
+	 */
+	public float[] sweep(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut) {
+		float[] accuracies = new float[kMax];
+		int[] correct = countCorrect(queries, database, featureType, kMax, leaveOneOut);
+		for (int k = 0; k < kMax && queries.length > 0; k++)
+			accuracies[k] = correct[k] / (float) queries.length;
+		return accuracies;
+	}
+
+	/**
+	 * Number of correctly classified queries for every k from 1 to kMax, see
+	 * {@link #sweep(FeatureContainer[], FeatureContainer[], FeatureType, int, boolean)}.
+	 * The counts of different query ranges can be summed up.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param kMax largest number of nearest neighbours
+	 * @param leaveOneOut
+	 * @return correct classifications of k at index k-1
+	 */
+	public int[] countCorrect(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut) {
+		if(queries.length == 0)
+			return new int[kMax];
+
+		ThreadLocal<KnnClassifier> classifiers = ThreadLocal.withInitial(() -> new KnnClassifier(voting));
+		ThreadLocal<int[]> predictions = ThreadLocal.withInitial(() -> new int[kMax]);
+		int threshold = Math.max(1, queries.length / (pool.getParallelism() * 8));
+		return pool.invoke(new SweepTask(queries, database, featureType, kMax, leaveOneOut, classifiers, predictions, threshold, 0, queries.length));
+	}
+
+	/**
+	 * Partial counts of a range of queries
+	 */
+	private static class Counts {
+		final int[] confusion;
+		int correct;
+
+		Counts(int categoryCount) {
+			confusion = new int[categoryCount * categoryCount];
+		}
+
+		Counts add(Counts other) {
+			for (int i = 0; i < confusion.length; i++)
+				confusion[i] += other.confusion[i];
+			correct += other.correct;
+			return this;
+		}
+	}
+
+	/**
+	 * Evaluates the queries between from (inclusive) and to (exclusive)
+	 */
+	private class EvaluationTask extends RecursiveTask<Counts> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FeatureContainer[] queries;
+		private final FeatureContainer[] database;
+		private final FeatureType featureType;
+		private final int k;
+		private final boolean leaveOneOut;
+		private final int categoryCount;
+		private final Map<String, Integer> categoryIndex;
+		private final ThreadLocal<KnnClassifier> classifiers;
+		private final int threshold, from, to;
+
+		EvaluationTask(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k, boolean leaveOneOut,
+				int categoryCount, Map<String, Integer> categoryIndex, ThreadLocal<KnnClassifier> classifiers, int threshold, int from, int to) {
+			this.queries = queries;
+			this.database = database;
+			this.featureType = featureType;
+			this.k = k;
+			this.leaveOneOut = leaveOneOut;
+			this.categoryCount = categoryCount;
+			this.categoryIndex = categoryIndex;
+			this.classifiers = classifiers;
+			this.threshold = threshold;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Counts compute() {
+			if(to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				EvaluationTask left = new EvaluationTask(queries, database, featureType, k, leaveOneOut, categoryCount, categoryIndex, classifiers, threshold, from, middle);
+				EvaluationTask right = new EvaluationTask(queries, database, featureType, k, leaveOneOut, categoryCount, categoryIndex, classifiers, threshold, middle, to);
+				left.fork();
+				return right.compute().add(left.join());
+			}
+
+			// one more neighbour in case the query finds itself
+			FeatureContainer[] batch = Arrays.copyOfRange(queries, from, to);
+			List<Ranking> rankings = retriever.retrieveBatch(batch, database, featureType, leaveOneOut ? k + 1 : k);
+
+			// in leave-one-out mode the classifier skips the query, the loop joins no other
+			// task and the worker uses its classifier for one task at a time
+			KnnClassifier knn = classifiers.get();
+			Counts counts = new Counts(categoryCount);
+			for (int i = 0; i < batch.length; i++) {
+				FeatureContainer query = batch[i];
+				int predicted = knn.classify(rankings.get(i), k, leaveOneOut ? query : null);
+				int real = categoryIndex.get(query.getCategory());
+				if(predicted == real)
+					counts.correct++;
+				if(predicted >= 0 && predicted < categoryCount)
+					counts.confusion[real * categoryCount + predicted]++;
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Counts the correct predictions of every k for the queries between from (inclusive) and to (exclusive)
+	 */
+	private class SweepTask extends RecursiveTask<int[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FeatureContainer[] queries;
+		private final FeatureContainer[] database;
+		private final FeatureType featureType;
+		private final int kMax;
+		private final boolean leaveOneOut;
+		private final ThreadLocal<KnnClassifier> classifiers;
+		private final ThreadLocal<int[]> predictions;
+		private final int threshold, from, to;
+
+		SweepTask(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut,
+				ThreadLocal<KnnClassifier> classifiers, ThreadLocal<int[]> predictions, int threshold, int from, int to) {
+			this.queries = queries;
+			this.database = database;
+			this.featureType = featureType;
+			this.kMax = kMax;
+			this.leaveOneOut = leaveOneOut;
+			this.classifiers = classifiers;
+			this.predictions = predictions;
+			this.threshold = threshold;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if(to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				SweepTask left = new SweepTask(queries, database, featureType, kMax, leaveOneOut, classifiers, predictions, threshold, from, middle);
+				SweepTask right = new SweepTask(queries, database, featureType, kMax, leaveOneOut, classifiers, predictions, threshold, middle, to);
+				left.fork();
+				int[] correct = right.compute();
+				int[] other = left.join();
+				for (int k = 0; k < kMax; k++)
+					correct[k] += other[k];
+				return correct;
+			}
+
+			FeatureContainer[] batch = Arrays.copyOfRange(queries, from, to);
+			List<Ranking> rankings = retriever.retrieveBatch(batch, database, featureType, leaveOneOut ? kMax + 1 : kMax);
+
+			// the classifier of the worker votes for all k at once
+			KnnClassifier knn = classifiers.get();
+			int[] predicted = predictions.get();
+			int[] correct = new int[kMax];
+			for (int i = 0; i < batch.length; i++) {
+				FeatureContainer query = batch[i];
+				knn.classifyEach(rankings.get(i), kMax, predicted, leaveOneOut ? query : null);
+				int real = knn.getId(query.getCategory());
+				for (int k = 0; k < kMax; k++)
+					if(predicted[k] == real)
+						correct[k]++;
+			}
+			return correct;
+		}
+	}
+}
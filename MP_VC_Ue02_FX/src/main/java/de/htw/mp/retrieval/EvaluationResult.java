@@ -0,0 +1,110 @@
+package de.htw.mp.retrieval;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Outcome of an evaluation run. Contains the overall accuracy, the accuracy
+ * per category and the confusion matrix of real against predicted categories.
+ *
+ * @author Nico Hezel
+ */
+public class EvaluationResult {
+
+	protected String[] categories;
+
+	/**
+	 * Rows are the real categories, columns the predicted ones
+	 */
+	protected int[][] confusionMatrix;
+
+	protected int queryCount;
+	protected int correctCount;
+
+	public EvaluationResult(String[] categories, int[][] confusionMatrix, int queryCount, int correctCount) {
+		this.categories = categories;
+		this.confusionMatrix = confusionMatrix;
+		this.queryCount = queryCount;
+		this.correctCount = correctCount;
+	}
+
+	/**
+	 * Overall correct rate between 0 and 1
+	 *
+	 * @return
+	 */
+	public float getAccuracy() {
+		return (queryCount == 0) ? 0 : (float) correctCount / queryCount;
+	}
+
+	/**
+	 * Correct rate of all queries of the given category, or NaN if the category is unknown or had no queries.
+	 *
+	 * @param category
+	 * @return
+	 */
+	public float getAccuracy(String category) {
+		int index = Arrays.binarySearch(categories, category);
+		if(index < 0) return Float.NaN;
+
+		int total = 0;
+		for (int count : confusionMatrix[index])
+			total += count;
+		return (total == 0) ? Float.NaN : (float) confusionMatrix[index][index] / total;
+	}
+
+	/**
+	 * Sorted names of all categories, same order as the rows and columns of the confusion matrix.
+	 *
+	 * @return
+	 */
+	public String[] getCategories() {
+		return categories;
+	}
+
+	/**
+	 * Number of queries for each pair of real (row) and predicted (column) category.
+	 * Predictions which are not a known category are only counted as incorrect.
+	 *
+	 * @return
+	 */
+	public int[][] getConfusionMatrix() {
+		return confusionMatrix;
+	}
+
+	/**
+	 * Combined result of two evaluations with different queries, e.g. two chunks of the same query set.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public EvaluationResult merge(EvaluationResult other) {
+		TreeSet<String> names = new TreeSet<>(Arrays.asList(categories));
+		names.addAll(Arrays.asList(other.categories));
+		String[] merged = names.toArray(new String[0]);
+
+		int[][] confusion = new int[merged.length][merged.length];
+		for (EvaluationResult result : new EvaluationResult[] { this, other }) {
+			int[] index = new int[result.categories.length];
+			for (int i = 0; i < index.length; i++)
+				index[i] = Arrays.binarySearch(merged, result.categories[i]);
+			for (int real = 0; real < index.length; real++)
+				for (int predicted = 0; predicted < index.length; predicted++)
+					confusion[index[real]][index[predicted]] += result.confusionMatrix[real][predicted];
+		}
+		return new EvaluationResult(merged, confusion, queryCount + other.queryCount, correctCount + other.correctCount);
+	}
+
+	public int getQueryCount() {
+		return queryCount;
+	}
+
+	public int getCorrectCount() {
+		return correctCount;
+	}
+
+	@Override
+	public String toString() {
+		return EvaluationResult.class.getSimpleName()+" "+correctCount+"/"+queryCount+" correct";
+	}
+}
@@ -0,0 +1,200 @@
+package de.htw.mp.retrieval;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Coarse versions of all mean images of a feature store, e.g. with 8x8 and 32x32 cells.
+ * Every cell contains the RGB sums of its pixels. The sum of the absolute differences
+ * of all pixels in a cell is at least the absolute difference of the cell sums, therefore
+ * the L1 distance of the coarse levels is a lower bound of the full distance.
+ * Searches rank all elements on the coarsest level first and only refine those
+ * which can still enter the top k. The results are the same as of a linear scan.
+ *
+ * @author Nico Hezel
+ */
+public class ImagePyramid {
+
+	protected final FeatureStore store;
+	protected final int size;
+	protected final int width;
+	protected final int height;
+
+	/**
+	 * Number of cells per row and column of each level, coarsest first
+	 */
+	protected final int[] gridSizes;
+
+	/**
+	 * Interleaved RGB cell sums of all rows for each level
+	 */
+	protected final int[][] levels;
+
+	/**
+	 * Build the levels for all rows of the store. Levels which are not coarser
+	 * than the image itself are skipped.
+	 *
+	 * @param store
+	 * @param gridSizes number of cells per row and column, e.g. 8 and 32
+	 */
+	public ImagePyramid(FeatureStore store, int... gridSizes) {
+		this.store = store;
+		this.size = store.size();
+		this.width = store.getImageWidth();
+		this.height = store.getImageHeight();
+		this.gridSizes = Arrays.stream(gridSizes).filter(g -> g > 0 && g < width && g < height).sorted().distinct().toArray();
+
+		this.levels = new int[this.gridSizes.length][];
+		for (int l = 0; l < this.gridSizes.length; l++) {
+			int grid = this.gridSizes[l];
+			int[] cellX = cellIndices(width, grid);
+			int[] cellY = cellIndices(height, grid);
+			int[] level = levels[l] = new int[size * grid * grid * 3];
+			IntStream.range(0, size).parallel().forEach(row -> {
+				byte[] image = store.get(FeatureType.MeanImage, row);
+				int cellOffset = row * grid * grid * 3;
+				for (int y = 0, i = 0; y < height; y++) {
+					int rowCell = cellOffset + cellY[y] * grid * 3;
+					for (int x = 0; x < width; x++, i += 3) {
+						int cell = rowCell + cellX[x] * 3;
+						level[cell]     += image[i] & 0xFF;
+						level[cell + 1] += image[i + 1] & 0xFF;
+						level[cell + 2] += image[i + 2] & 0xFF;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Cell of every pixel position, the cells do not overlap
+	 */
+	private static int[] cellIndices(int length, int grid) {
+		int[] cells = new int[length];
+		for (int c = 0; c < grid; c++)
+			for (int i = c * length / grid; i < (c + 1) * length / grid; i++)
+				cells[i] = c;
+		return cells;
+	}
+
+	/**
+	 * Find the k database elements with the smallest L1 distance between their mean images
+	 * and the one of the query. Elements with the same distance are ordered by their
+	 * position in the database.
+	 *
+	 * @param query
+	 * @param database
+	 * @param k
+	 * @return database indices, best first
+	 */
+	public int[] searchTopK(FeatureContainer query, FeatureContainer[] database, int k) {
+		TopKHeap heap = new TopKHeap(Math.min(k, database.length));
+		search(query, database, 0, database.length, heap);
+		return heap.drainSorted();
+	}
+
+	/**
+	 * Offer the database elements between from (inclusive) and to (exclusive) to the heap,
+	 * elements which can not enter the heap are skipped. The heap contains the database indices.
+	 *
+	 * @param query
+	 * @param database
+	 * @param from
+	 * @param to
+	 * @param heap
+	 */
+	public void search(FeatureContainer query, FeatureContainer[] database, int from, int to, TopKHeap heap) {
+		if(heap.capacity() == 0)
+			return;
+
+		// elements without pyramid get compared exactly
+		boolean queryInPyramid = contains(query);
+		int[] candidates = new int[to - from];
+		long[] coarse = new long[to - from];
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if(queryInPyramid && contains(database[i])) {
+				candidates[count] = i;
+				coarse[count++] = (levels.length == 0) ? 0 : levelDistance(0, query.getRow(), database[i].getRow(), Long.MAX_VALUE);
+			} else
+				heap.offer(exactDistance(query, database[i], Long.MAX_VALUE), i);
+		}
+
+		// most promising candidates first, the k-th best distance drops quickly.
+		// bound and candidate number are packed into one sort key to avoid boxing
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+			order[i] = coarse[i] * count + i;
+		Arrays.sort(order);
+
+		for (long key : order) {
+			long bound = key / count;
+			if(bound > heap.threshold())
+				break;
+
+			int index = candidates[(int) (key % count)];
+			int row = database[index].getRow();
+			for (int l = 1; l < levels.length && bound <= heap.threshold(); l++)
+				bound = levelDistance(l, query.getRow(), row, heap.threshold());
+			if(bound > heap.threshold())
+				continue;
+
+			long distance = exactDistance(query, database[index], heap.threshold());
+			if(distance <= heap.threshold())
+				heap.offer(distance, index);
+		}
+	}
+
+	/**
+	 * L1 distance of the cell sums of two rows, stops early once it exceeds the limit
+	 */
+	private long levelDistance(int level, int row1, int row2, long limit) {
+		int[] cells = levels[level];
+		int length = gridSizes[level] * gridSizes[level] * 3;
+		int offset1 = row1 * length, offset2 = row2 * length;
+		long distance = 0;
+		for (int i = 0; i < length; i++) {
+			distance += Math.abs(cells[offset1 + i] - cells[offset2 + i]);
+			if((i & 63) == 63 && distance > limit)
+				return distance;
+		}
+		return distance;
+	}
+
+	/**
+	 * L1 distance of the full mean images, calculated row by row and stopped
+	 * early once it exceeds the limit. The result is larger than the limit in this case.
+	 */
+	private long exactDistance(FeatureContainer f1, FeatureContainer f2, long limit) {
+		FeatureStore s1 = f1.getStore(), s2 = f2.getStore();
+		ByteBuffer d1 = s1.getBuffer(FeatureType.MeanImage, f1.getRow()), d2 = s2.getBuffer(FeatureType.MeanImage, f2.getRow());
+		int offset1 = s1.getOffset(FeatureType.MeanImage, f1.getRow());
+		int offset2 = s2.getOffset(FeatureType.MeanImage, f2.getRow());
+		int length = s1.getDimension(FeatureType.MeanImage);
+		int step = Math.max(1, s1.getImageWidth() * 3);
+
+		long distance = 0;
+		for (int start = 0; start < length && distance <= limit; start += step)
+			distance += DistanceKernels.l1(d1, offset1 + start, d2, offset2 + start, Math.min(step, length - start));
+		return distance;
+	}
+
+	/**
+	 * Has the element a pyramid
+	 *
+	 * @param feature
+	 * @return
+	 */
+	public boolean contains(FeatureContainer feature) {
+		return feature.getStore() == store && feature.getRow() < size;
+	}
+
+	public FeatureStore getStore() {
+		return store;
+	}
+}
@@ -0,0 +1,201 @@
+package de.htw.mp.retrieval;
+
+import de.htw.mp.feature.FeatureExtractor;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * k-d tree over the feature vectors of a database, meant for low dimensional
+ * features like the mean color. The tree is implicit: every range of the
+ * reordered points is split at its middle element along the axis with the
+ * largest spread. Searches are exact and return the same elements in the same
+ * order as a linear scan, branches are only skipped if the lower bound of their
+ * distance is larger than the current k-th best distance.
+ *
+ * @author Nico Hezel
+ */
+public class KdTree implements SearchIndex {
+
+	/**
+	 * Ranges with this many points or less are scanned linearly
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	protected final FeatureContainer[] database;
+	protected final FeatureType featureType;
+	protected final FeatureExtractor extractor;
+	protected final int dim;
+
+	/**
+	 * Feature vectors in tree order
+	 */
+	protected final byte[] points;
+
+	/**
+	 * Database index of every point
+	 */
+	protected final int[] ids;
+
+	/**
+	 * Split axis of the middle element of every inner range
+	 */
+	protected final byte[] axes;
+
+	/**
+	 * Build the tree over all elements of the database
+	 *
+	 * @param database elements of the same feature store
+	 * @param featureType
+	 */
+	public KdTree(FeatureContainer[] database, FeatureType featureType) {
+		this.database = database;
+		this.featureType = featureType;
+		this.extractor = featureType.getExtractor();
+		this.dim = (database.length == 0) ? 0 : database[0].getStore().getDimension(featureType);
+		if(dim > Byte.MAX_VALUE)
+			throw new IllegalArgumentException(featureType+" has too many dimensions for a k-d tree: "+dim);
+
+		// copy all vectors in database order
+		byte[] vectors = new byte[database.length * dim];
+		for (int i = 0; i < database.length; i++)
+			database[i].getStore().get(featureType, database[i].getRow(), vectors, i * dim);
+
+		this.ids = new int[database.length];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = i;
+		this.axes = new byte[database.length];
+		build(vectors, 0, database.length);
+
+		this.points = new byte[vectors.length];
+		for (int i = 0; i < ids.length; i++)
+			System.arraycopy(vectors, ids[i] * dim, points, i * dim, dim);
+	}
+
+	@Override
+	public boolean isBuiltFor(FeatureContainer[] database, FeatureType featureType) {
+		return this.database == database && this.featureType == featureType;
+	}
+
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+
+	/**
+	 * Find the k database elements nearest to the query.
+	 * Elements with the same distance are ordered by their position in the database.
+	 *
+	 * @param query
+	 * @param k
+	 * @param distances receives the distances of the returned elements, can be null
+	 * @return database indices, best first
+	 */
+	@Override
+	public int[] searchTopK(FeatureContainer query, int k, long[] distances) {
+		return searchTopK(query, k, 0, database.length, distances);
+	}
+
+	/**
+	 * Find the k nearest elements between from (inclusive) and to (exclusive) of the database.
+	 * The whole tree is traversed, elements outside of the range are skipped.
+	 *
+	 * @param query
+	 * @param k
+	 * @param from
+	 * @param to
+	 * @param distances receives the distances of the returned elements, can be null
+	 * @return database indices, best first
+	 */
+	@Override
+	public int[] searchTopK(FeatureContainer query, int k, int from, int to, long[] distances) {
+		TopKHeap heap = new TopKHeap(Math.min(k, to - from));
+		if(heap.capacity() > 0)
+			search(query.getStore().get(featureType, query.getRow()), 0, 0, ids.length, from, to, heap);
+		return (distances == null) ? heap.drainSorted() : heap.drainSorted(distances);
+	}
+
+	private void search(byte[] query, int queryOffset, int lo, int hi, int from, int to, TopKHeap heap) {
+		if(hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++)
+				if(ids[i] >= from && ids[i] < to)
+					heap.offer(extractor.distance(points, i * dim, query, queryOffset, dim), ids[i]);
+			return;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		int axis = axes[mid];
+		int diff = (query[queryOffset + axis] & 0xFF) - (points[mid * dim + axis] & 0xFF);
+		if(ids[mid] >= from && ids[mid] < to)
+			heap.offer(extractor.distance(points, mid * dim, query, queryOffset, dim), ids[mid]);
+
+		// visit the side of the query first, the other side only if it can still contain better elements
+		if(diff < 0) {
+			search(query, queryOffset, lo, mid, from, to, heap);
+			if(extractor.lowerBound(-diff) <= heap.threshold())
+				search(query, queryOffset, mid + 1, hi, from, to, heap);
+		} else {
+			search(query, queryOffset, mid + 1, hi, from, to, heap);
+			if(extractor.lowerBound(diff) <= heap.threshold())
+				search(query, queryOffset, lo, mid, from, to, heap);
+		}
+	}
+
+	private void build(byte[] vectors, int lo, int hi) {
+		if(hi - lo <= LEAF_SIZE)
+			return;
+
+		// split along the axis with the largest spread
+		int axis = 0, spread = -1;
+		for (int d = 0; d < dim; d++) {
+			int min = 255, max = 0;
+			for (int i = lo; i < hi; i++) {
+				int value = vectors[ids[i] * dim + d] & 0xFF;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if(max - min > spread) {
+				spread = max - min;
+				axis = d;
+			}
+		}
+
+		int mid = (lo + hi) >>> 1;
+		select(vectors, axis, lo, hi - 1, mid);
+		axes[mid] = (byte) axis;
+		build(vectors, lo, mid);
+		build(vectors, mid + 1, hi);
+	}
+
+	/**
+	 * Reorder the ids between lo and hi (inclusive) until the n-th element is at its
+	 * sorted position, all elements before are smaller or equal and all behind are larger or equal.
+	 */
+	private void select(byte[] vectors, int axis, int lo, int hi, int n) {
+		while(lo < hi) {
+			int pivot = vectors[ids[(lo + hi) >>> 1] * dim + axis] & 0xFF;
+			int i = lo, j = hi;
+			while(i <= j) {
+				while((vectors[ids[i] * dim + axis] & 0xFF) < pivot) i++;
+				while((vectors[ids[j] * dim + axis] & 0xFF) > pivot) j--;
+				if(i <= j) {
+					int tmp = ids[i];
+					ids[i] = ids[j];
+					ids[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(n <= j) hi = j;
+			else if(n >= i) lo = i;
+			else return;
+		}
+	}
+
+	public FeatureContainer[] getDatabase() {
+		return database;
+	}
+
+	public FeatureType getFeatureType() {
+		return featureType;
+	}
+}
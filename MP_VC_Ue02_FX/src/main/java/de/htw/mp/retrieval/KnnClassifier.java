@@ -0,0 +1,218 @@
+package de.htw.mp.retrieval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.htw.mp.model.FeatureContainer;
+
+/**
+ * k-nearest-neighbour classification with category ids. Category names are interned
+ * to ids once, the votes are counted in reused arrays and only the entries of the
+ * k neighbours get reset afterwards. A classification takes O(k) and allocates nothing.
+ * If several categories have the same votes, the one with the nearest neighbour wins.
+ *
+ * Instances are not thread safe, parallel classifications need their own instance.
+ *
+ * @author Nico Hezel
+ */
+public class KnnClassifier {
+
+	/**
+	 * How much a neighbour counts for its category
+	 */
+	public static enum Voting {
+
+		/**
+		 * Every neighbour has one vote
+		 */
+		MAJORITY,
+
+		/**
+		 * Every neighbour votes with 1 / (1 + distance to the query)
+		 */
+		DISTANCE_WEIGHTED
+	}
+
+	protected final Voting voting;
+	protected final Map<String, Integer> ids = new HashMap<>();
+	protected final List<String> categories = new ArrayList<>();
+
+	/**
+	 * Votes per category id, only the entries of the current neighbours are non zero
+	 */
+	protected int[] counts = new int[0];
+	protected float[] weights = new float[0];
+
+	/**
+	 * Rank of the nearest neighbour per category id, only valid for the current neighbours
+	 */
+	protected int[] firstRanks = new int[0];
+
+	/**
+	 * Category ids of the current neighbours
+	 */
+	protected int[] neighbourIds = new int[0];
+
+	/**
+	 * @param voting
+	 * @param categories which get the ids 0, 1, 2 ... in this order
+	 */
+	public KnnClassifier(Voting voting, String... categories) {
+		this.voting = voting;
+		for (String category : categories)
+			getId(category);
+	}
+
+	/**
+	 * Id of a category, unknown categories get the next free id
+	 *
+	 * @param category
+	 * @return
+	 */
+	public int getId(String category) {
+		Integer id = ids.get(category);
+		if(id != null)
+			return id;
+
+		id = categories.size();
+		ids.put(category, id);
+		categories.add(category);
+		if(id >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(16, counts.length * 2));
+			weights = Arrays.copyOf(weights, counts.length);
+			firstRanks = Arrays.copyOf(firstRanks, counts.length);
+		}
+		return id;
+	}
+
+	/**
+	 * Forget all category ids, e.g. after the categories of a data set have changed
+	 */
+	public void clear() {
+		ids.clear();
+		categories.clear();
+	}
+
+	/**
+	 * Name of a category id
+	 *
+	 * @param id
+	 * @return
+	 */
+	public String getCategory(int id) {
+		return categories.get(id);
+	}
+
+	/**
+	 * Predict the category of the first k elements of a sorted list by majority vote.
+	 *
+	 * @param sortedList
+	 * @param k
+	 * @return category id or -1 if the list is empty
+	 */
+	public int classify(List<FeatureContainer> sortedList, int k) {
+		return vote(sortedList, null, k, null, null);
+	}
+
+	/**
+	 * Predict the category based on the first k elements of a ranking. The weighted
+	 * voting uses the distances of the ranking.
+	 *
+	 * @param ranking
+	 * @param k
+	 * @return category id or -1 if the ranking is empty
+	 */
+	public int classify(Ranking ranking, int k) {
+		return classify(ranking, k, null);
+	}
+
+	/**
+	 * Predict the category based on the first k elements of a ranking which are not
+	 * the query itself, e.g. for a leave-one-out evaluation. The ranking is not copied.
+	 *
+	 * @param ranking
+	 * @param k
+	 * @param query is skipped if it is part of the ranking, can be null
+	 * @return category id or -1 if the ranking has no other element
+	 */
+	public int classify(Ranking ranking, int k, FeatureContainer query) {
+		return vote(ranking, ranking.distances, k, null, query);
+	}
+
+	/**
+	 * Predict the category for every k from 1 to kMax with a single pass over the
+	 * ranking. The prediction for k is the same as of {@link #classify(Ranking, int, FeatureContainer)}.
+	 *
+	 * @param ranking
+	 * @param kMax
+	 * @param predictions category ids for k = 1 to kMax, -1 if the ranking has no other element
+	 * @param query is skipped if it is part of the ranking, can be null
+	 */
+	public void classifyEach(Ranking ranking, int kMax, int[] predictions, FeatureContainer query) {
+		vote(ranking, ranking.distances, kMax, predictions, query);
+	}
+
+	/**
+	 * Add the votes of the first k neighbours one after another. Only the
+	 * votes of the last neighbour change, therefore the best category so far
+	 * stays the best unless the category of that neighbour overtakes it.
+	 */
+	private int vote(List<FeatureContainer> sortedList, long[] distances, int k, int[] predictions, FeatureContainer query) {
+		int capacity = Math.min(k, sortedList.size());
+		if(capacity > neighbourIds.length)
+			neighbourIds = new int[Math.max(capacity, neighbourIds.length * 2)];
+
+		// most votes, ties go to the category with the nearest neighbour
+		boolean weighted = voting == Voting.DISTANCE_WEIGHTED && distances != null;
+		int best = -1, count = 0;
+		for (int i = 0; i < sortedList.size() && count < k; i++) {
+			FeatureContainer neighbour = sortedList.get(i);
+			if(query != null && isSame(query, neighbour)) continue;
+
+			int id = neighbourIds[count] = getId(neighbour.getCategory());
+			if(counts[id]++ == 0)
+				firstRanks[id] = count;
+			if(weighted)
+				weights[id] += 1f / (1f + distances[i]);
+			if(best < 0 || isBetter(id, best, weighted))
+				best = id;
+			if(predictions != null)
+				predictions[count] = best;
+			count++;
+		}
+		if(predictions != null)
+			Arrays.fill(predictions, count, k, best);
+
+		for (int i = 0; i < count; i++) {
+			counts[neighbourIds[i]] = 0;
+			weights[neighbourIds[i]] = 0;
+		}
+		return best;
+	}
+
+	private static boolean isSame(FeatureContainer a, FeatureContainer b) {
+		return a == b || (a.getStore() == b.getStore() && a.getRow() == b.getRow());
+	}
+
+	private boolean isBetter(int id, int other, boolean weighted) {
+		if(weighted ? weights[id] != weights[other] : counts[id] != counts[other])
+			return weighted ? weights[id] > weights[other] : counts[id] > counts[other];
+		return firstRanks[id] < firstRanks[other];
+	}
+
+	/**
+	 * Number of known categories
+	 *
+	 * @return
+	 */
+	public int size() {
+		return categories.size();
+	}
+
+	public Voting getVoting() {
+		return voting;
+	}
+}
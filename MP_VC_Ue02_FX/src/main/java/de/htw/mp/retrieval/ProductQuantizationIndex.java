@@ -0,0 +1,225 @@
+package de.htw.mp.retrieval;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import de.htw.mp.feature.FeatureExtractor;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Compressed index for high dimensional features like the mean image.
+ * The vectors are split into subspaces and every sub-vector is replaced by the
+ * number of its nearest centroid, a database element needs one byte per subspace.
+ * The centroids are trained with k-means on a sample of the database.
+ * A query gets compared to all centroids once (asymmetric distance table), the
+ * approximate distance to an element is the sum of its table entries. The best
+ * candidates can be re-ranked with their exact distance.
+ *
+ * @author Nico Hezel
+ */
+public class ProductQuantizationIndex implements SearchIndex {
+
+	protected final FeatureContainer[] database;
+	protected final FeatureType featureType;
+	protected final FeatureExtractor extractor;
+	protected final int dim;
+	protected final int subspaces;
+	protected final int centroidCount;
+	protected final int rerankSize;
+
+	/**
+	 * First dimension of every subspace and the end of the last one
+	 */
+	protected final int[] bounds;
+
+	/**
+	 * Centroids of every subspace, one after another
+	 */
+	protected final byte[][] centroids;
+
+	/**
+	 * Centroid numbers of all database elements, one byte per subspace
+	 */
+	protected final byte[] codes;
+
+	/**
+	 * Train the centroids and encode all elements of the database
+	 *
+	 * @param database elements of the same feature store
+	 * @param featureType
+	 * @param subspaces number of bytes per element
+	 * @param centroidCount per subspace, at most 256
+	 * @param trainingSize number of elements used for the k-means training
+	 * @param iterations of k-means
+	 * @param rerankSize number of candidates whose exact distance gets calculated, 0 for none
+	 * @param seed of the training sample
+	 */
+	public ProductQuantizationIndex(FeatureContainer[] database, FeatureType featureType, int subspaces, int centroidCount, int trainingSize, int iterations, int rerankSize, long seed) {
+		this.database = database;
+		this.featureType = featureType;
+		this.extractor = featureType.getExtractor();
+		this.dim = (database.length == 0) ? 0 : database[0].getStore().getDimension(featureType);
+		this.subspaces = Math.max(1, Math.min(subspaces, dim));
+		this.centroidCount = Math.max(1, Math.min(Math.min(centroidCount, 256), Math.min(trainingSize, database.length)));
+		this.rerankSize = rerankSize;
+
+		this.bounds = new int[this.subspaces + 1];
+		for (int m = 0; m <= this.subspaces; m++)
+			bounds[m] = (int) ((long) m * dim / this.subspaces);
+
+		// random training sample without duplicates
+		int[] sample = new int[database.length];
+		for (int i = 0; i < sample.length; i++)
+			sample[i] = i;
+		Random random = new Random(seed);
+		int sampleSize = Math.min(trainingSize, database.length);
+		for (int i = 0; i < sampleSize; i++) {
+			int j = i + random.nextInt(sample.length - i);
+			int tmp = sample[i];
+			sample[i] = sample[j];
+			sample[j] = tmp;
+		}
+
+		this.centroids = new byte[this.subspaces][];
+		IntStream.range(0, this.subspaces).parallel().forEach(m -> centroids[m] = train(m, sample, sampleSize, iterations));
+
+		this.codes = new byte[database.length * this.subspaces];
+		IntStream.range(0, database.length).parallel().forEach(i -> {
+			byte[] vector = database[i].getStore().get(featureType, database[i].getRow());
+			for (int m = 0; m < this.subspaces; m++)
+				codes[i * this.subspaces + m] = (byte) nearestCentroid(m, vector, bounds[m]);
+		});
+	}
+
+	/**
+	 * k-means of one subspace, initialized with the first elements of the shuffled sample
+	 */
+	private byte[] train(int m, int[] sample, int sampleSize, int iterations) {
+		int length = bounds[m + 1] - bounds[m];
+		byte[] result = new byte[centroidCount * length];
+		for (int c = 0; c < centroidCount; c++)
+			copy(sample[c], bounds[m], result, c * length, length);
+
+		long[] sums = new long[centroidCount * length];
+		int[] counts = new int[centroidCount];
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			byte[] vector = new byte[length];
+			for (int s = 0; s < sampleSize; s++) {
+				copy(sample[s], bounds[m], vector, 0, length);
+				int c = nearestCentroid(result, length, vector, 0);
+				counts[c]++;
+				for (int i = 0; i < length; i++)
+					sums[c * length + i] += vector[i] & 0xFF;
+			}
+
+			// empty clusters keep their old centroid
+			for (int c = 0; c < centroidCount; c++)
+				if(counts[c] > 0)
+					for (int i = 0; i < length; i++)
+						result[c * length + i] = (byte) (sums[c * length + i] / counts[c]);
+		}
+		return result;
+	}
+
+	private int nearestCentroid(int m, byte[] data, int offset) {
+		return nearestCentroid(centroids[m], bounds[m + 1] - bounds[m], data, offset);
+	}
+
+	private int nearestCentroid(byte[] subCentroids, int length, byte[] data, int offset) {
+		int best = 0;
+		long bestDistance = Long.MAX_VALUE;
+		for (int c = 0; c < centroidCount; c++) {
+			long distance = extractor.distance(subCentroids, c * length, data, offset, length);
+			if(distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public int[] searchTopK(FeatureContainer query, int k, long[] distances) {
+		return searchTopK(query, k, 0, database.length, distances);
+	}
+
+	@Override
+	public int[] searchTopK(FeatureContainer query, int k, int from, int to, long[] distances) {
+		byte[] data = query.getStore().get(featureType, query.getRow());
+
+		// distances between the query and all centroids
+		long[] table = new long[subspaces * centroidCount];
+		for (int m = 0; m < subspaces; m++) {
+			int length = bounds[m + 1] - bounds[m];
+			for (int c = 0; c < centroidCount; c++)
+				table[m * centroidCount + c] = extractor.distance(centroids[m], c * length, data, bounds[m], length);
+		}
+
+		// approximate distances of all elements in the range
+		TopKHeap candidates = new TopKHeap(Math.min(Math.max(k, rerankSize), to - from));
+		for (int i = from, code = from * subspaces; i < to; i++) {
+			long distance = 0;
+			for (int m = 0; m < subspaces; m++, code++)
+				distance += table[m * centroidCount + (codes[code] & 0xFF)];
+			candidates.offer(distance, i);
+		}
+		int[] best = candidates.drainSorted();
+		if(rerankSize == 0) {
+			int count = Math.min(k, best.length);
+			for (int i = 0; distances != null && i < count; i++)
+				distances[i] = candidates.sortedDistance(i);
+			return Arrays.copyOf(best, count);
+		}
+
+		// exact distances of the best candidates
+		ByteBuffer queryBuffer = ByteBuffer.wrap(data);
+		TopKHeap heap = new TopKHeap(Math.min(k, best.length));
+		for (int index : best)
+			heap.offer(extractor.distance(getBuffer(index), getOffset(index), queryBuffer, 0, dim), index);
+		return (distances == null) ? heap.drainSorted() : heap.drainSorted(distances);
+	}
+
+	@Override
+	public boolean isBuiltFor(FeatureContainer[] database, FeatureType featureType) {
+		return this.database == database && this.featureType == featureType;
+	}
+
+	/**
+	 * Candidates are ranked by their approximate distance, the best ones can be missed
+	 */
+	@Override
+	public boolean isExact() {
+		return false;
+	}
+
+	/**
+	 * Bytes per database element
+	 *
+	 * @return
+	 */
+	public int getCodeSize() {
+		return subspaces;
+	}
+
+	private ByteBuffer getBuffer(int index) {
+		return database[index].getStore().getBuffer(featureType, database[index].getRow());
+	}
+
+	private int getOffset(int index) {
+		return database[index].getStore().getOffset(featureType, database[index].getRow());
+	}
+
+	/**
+	 * Copy a part of the vector of a database element
+	 */
+	private void copy(int index, int from, byte[] target, int targetOffset, int length) {
+		ByteBuffer values = getBuffer(index).duplicate();
+		values.position(getOffset(index) + from);
+		values.get(target, targetOffset, length);
+	}
+}
@@ -0,0 +1,55 @@
+package de.htw.mp.retrieval;
+
+import java.util.AbstractList;
+
+import de.htw.mp.model.FeatureContainer;
+
+/**
+ * Database elements sorted by their distance to a query, together with these distances.
+ * The distances come from the search itself, e.g. the heap or the distance matrix,
+ * and do not need to be calculated again for a distance weighted vote.
+ *
+ * @author Nico Hezel
+ */
+public class Ranking extends AbstractList<FeatureContainer> {
+
+	protected final FeatureContainer[] elements;
+	protected final long[] distances;
+
+	/**
+	 * @param indices database positions, best first
+	 * @param distances of the elements in the same order
+	 * @param database
+	 */
+	public Ranking(int[] indices, long[] distances, FeatureContainer[] database) {
+		this.elements = new FeatureContainer[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			elements[i] = database[indices[i]];
+		this.distances = distances;
+	}
+
+	protected Ranking(FeatureContainer[] elements, long[] distances) {
+		this.elements = elements;
+		this.distances = distances;
+	}
+
+	@Override
+	public FeatureContainer get(int index) {
+		return elements[index];
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	/**
+	 * Distance between the query and the element at the index
+	 *
+	 * @param index
+	 * @return
+	 */
+	public long getDistance(int index) {
+		return distances[index];
+	}
+}
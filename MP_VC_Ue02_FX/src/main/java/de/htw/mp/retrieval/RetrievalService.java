@@ -0,0 +1,660 @@
+package de.htw.mp.retrieval;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import de.htw.mp.feature.FeatureExtractionPipeline;
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Retrieval, classification and evaluation on the precalculated features of a data set.
+ * Holds the features, the search arrays of the image and category database and everything
+ * derived from them, e.g. search indices and distance matrices. Needs no JavaFX, the
+ * DatasetViewer and the command line version use the same service.
+ *
+ * Single searches may use an approximate search index, evaluations and sweeps
+ * are always based on the exact distances.
+ *
+ * Searches and evaluations read the features under a shared fair lock, changes of the
+ * features are applied with {@link #update(Runnable)} once no search or evaluation is
+ * running. Rows of removed images are therefore never reused while they are read.
+ *
+ * @author Nico Hezel
+ */
+public class RetrievalService {
+
+	/**
+	 * Receives the result of all queries evaluated so far, after every chunk of an evaluation or sweep
+	 */
+	@FunctionalInterface
+	public static interface EvaluationListener<T> {
+		public void evaluated(T result, int done, int total);
+	}
+
+	/**
+	 * Cells per row and column of the pyramid levels
+	 */
+	private static final int[] PYRAMID_GRID_SIZES = { 8, 32 };
+
+	/**
+	 * Feature types with up to this many dimensions get a k-d tree
+	 */
+	private static final int KD_TREE_MAX_DIMENSION = 8;
+
+	/**
+	 * Feature types with at least this many dimensions get a product quantization
+	 * index, if the database is large enough to make a linear scan too slow
+	 */
+	private static final int PQ_MIN_DIMENSION = 1024;
+	private static final int PQ_MIN_DATABASE_SIZE = 20000;
+
+	/**
+	 * Bytes per element, centroids per subspace, k-means sample size and iterations
+	 * and the number of exactly re-ranked candidates of the product quantization
+	 */
+	private static final int PQ_SUBSPACES = 48;
+	private static final int PQ_CENTROIDS = 256;
+	private static final int PQ_TRAINING_SIZE = 10000;
+	private static final int PQ_ITERATIONS = 8;
+	private static final int PQ_RERANK_SIZE = 400;
+
+	/**
+	 * Map from category name to the feature container of a category
+	 */
+	private volatile Map<String, FeatureContainer> categoryFeatures = new ConcurrentHashMap<>();
+
+	/**
+	 * Map from filename to feature container for the image
+	 */
+	private volatile Map<String, FeatureContainer> imageFeatures = new ConcurrentHashMap<>();
+
+	/**
+	 * Packed feature values of all images and categories
+	 */
+	private FeatureStore featureStore;
+
+	/**
+	 * Distances between all images and the elements of the image or category database
+	 */
+	private List<DistanceMatrix> distanceMatrices = new ArrayList<>();
+
+	/**
+	 * All image features, every search on the image database uses this array
+	 */
+	private volatile FeatureContainer[] imageDatabase = new FeatureContainer[0];
+
+	/**
+	 * All category features, every search on the category database uses this array
+	 */
+	private volatile FeatureContainer[] categoryDatabase = new FeatureContainer[0];
+
+	/**
+	 * Search indices of both databases
+	 */
+	private List<SearchIndex> searchIndices = new ArrayList<>();
+
+	/**
+	 * Coarse levels of the mean images, searched before the full images get compared
+	 */
+	private ImagePyramid imagePyramid;
+
+	/**
+	 * How the neighbours vote for a category in the evaluations
+	 */
+	private KnnClassifier.Voting voting = KnnClassifier.Voting.MAJORITY;
+
+	/**
+	 * Searches and evaluations share the read lock, changes of the features need the write lock.
+	 * The lock is fair, a pending change is applied before any operation which starts after it.
+	 */
+	private final ReentrantReadWriteLock featureLock = new ReentrantReadWriteLock(true);
+
+	/**
+	 * Runs the searches, evaluations and index builds, including their parallel streams
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Majority vote of single rankings, knows the ids of the categories seen since the
+	 * features last changed. Guarded by its own monitor, a classification never waits
+	 * for the service.
+	 */
+	private final KnnClassifier classifier = new KnnClassifier(KnnClassifier.Voting.MAJORITY);
+
+	/**
+	 * Service which runs its parallel work in the common pool
+	 */
+	public RetrievalService() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool runs the searches, evaluations and index builds
+	 */
+	public RetrievalService(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Use the precalculated features for all following searches and evaluations. The maps
+	 * of the result are looked up without a lock and need to be thread safe. The service
+	 * closes the store of the replaced features, no search uses them anymore.
+	 *
+	 * @param result
+	 */
+	public void setFeatures(FeatureExtractionPipeline.Result result) {
+		update(() -> {
+			if(featureStore != null && featureStore != result.getStore()) {
+				try {
+					featureStore.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			featureStore = result.getStore();
+			categoryFeatures = result.getCategoryFeatures();
+			imageFeatures = result.getImageFeatures();
+			resetDatabases();
+		});
+	}
+
+	/**
+	 * The features of an image and its category have changed, e.g. by a change of
+	 * {@link #update(Runnable)}. The searches use the new features from now on.
+	 */
+	public void featuresChanged() {
+		update(this::resetDatabases);
+	}
+
+	/**
+	 * Change the features once no search or evaluation is running, e.g. as the executor
+	 * of a {@link de.htw.mp.feature.DatasetWatcher}. Searches and evaluations which start
+	 * in the meantime wait for the change. The change has to call {@link #featuresChanged()}
+	 * if it changed any feature.
+	 *
+	 * @param change
+	 */
+	public void update(Runnable change) {
+		featureLock.writeLock().lock();
+		try {
+			change.run();
+		} finally {
+			featureLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Run an operation on the current features, no change is applied in the meantime.
+	 * Waits for the changes which are applied or pending right now. Containers and
+	 * databases which are used by the operation should be looked up within, the rows
+	 * of removed images might be reused by the next change.
+	 *
+	 * @param operation
+	 * @return result of the operation
+	 */
+	public <T> T read(Supplier<T> operation) {
+		featureLock.readLock().lock();
+		try {
+			return operation.get();
+		} finally {
+			featureLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Features of an image, looked up without waiting for a change of the features
+	 *
+	 * @param name of the image file
+	 * @return feature container or NULL if there is no such image
+	 */
+	public FeatureContainer getImageFeature(String name) {
+		return imageFeatures.get(name);
+	}
+
+	/**
+	 * Features of a category, looked up without waiting for a change of the features
+	 *
+	 * @param category
+	 * @return feature container or NULL if there is no such category
+	 */
+	public FeatureContainer getCategoryFeature(String category) {
+		return categoryFeatures.get(category);
+	}
+
+	/**
+	 * All image features, the same array until the features change
+	 *
+	 * @return
+	 */
+	public FeatureContainer[] getImageDatabase() {
+		return imageDatabase;
+	}
+
+	/**
+	 * All category features, the same array until the features change
+	 *
+	 * @return
+	 */
+	public FeatureContainer[] getCategoryDatabase() {
+		return categoryDatabase;
+	}
+
+	/**
+	 * How the neighbours vote for a category in the evaluations
+	 *
+	 * @return
+	 */
+	public KnnClassifier.Voting getVoting() {
+		return voting;
+	}
+
+	public void setVoting(KnnClassifier.Voting voting) {
+		this.voting = voting;
+	}
+
+	/**
+	 * Distance between the features of two images or categories, as defined by the extractor of the feature type
+	 *
+	 * @param f1
+	 * @param f2
+	 * @param featureType
+	 * @return
+	 */
+	public long calculateDistance(FeatureContainer f1, FeatureContainer f2, FeatureType featureType) {
+		return read(() -> distance(f1, f2, featureType));
+	}
+
+	private static long distance(FeatureContainer f1, FeatureContainer f2, FeatureType featureType) {
+		FeatureStore s1 = f1.getStore();
+		FeatureStore s2 = f2.getStore();
+		return featureType.getExtractor().distance(s1.getBuffer(featureType, f1.getRow()), s1.getOffset(featureType, f1.getRow()),
+				s2.getBuffer(featureType, f2.getRow()), s2.getOffset(featureType, f2.getRow()), s1.getDimension(featureType));
+	}
+
+	/**
+	 * Find the k elements in the database which are most similar to the search query.
+	 * Elements with the same distance are ordered by their position in the database.
+	 * Distances of an evaluation are reused, large databases are split into shards
+	 * which are searched in parallel. High dimensional features of large databases are
+	 * searched approximately in a product quantization index, see {@link SearchIndex#isExact()}.
+	 *
+	 * @param query
+	 * @param database
+	 * @param featureType
+	 * @param k
+	 * @return sorted list of the k best database elements
+	 */
+	public List<FeatureContainer> retrieveTopK(FeatureContainer query, FeatureContainer[] database, FeatureType featureType, int k) {
+		return retrieveTopK(query, database, 0, database.length, featureType, k);
+	}
+
+	/**
+	 * Find the k elements between from (inclusive) and to (exclusive) of the database which
+	 * are most similar to the search query, e.g. to search a large database slice by slice.
+	 * Uses the same distance matrices, search indices and shards as the search of the whole
+	 * database, see {@link #retrieveTopK(FeatureContainer, FeatureContainer[], FeatureType, int)}.
+	 *
+	 * @param query
+	 * @param database
+	 * @param from
+	 * @param to
+	 * @param featureType
+	 * @param k
+	 * @return ranking of the k best elements of the range with their distances
+	 */
+	public Ranking retrieveTopK(FeatureContainer query, FeatureContainer[] database, int from, int to, FeatureType featureType, int k) {
+		return read(() -> {
+			int capacity = Math.min(k, to - from);
+
+			// the distances of the query might be calculated already
+			DistanceMatrix matrix = getCachedDistanceMatrix(database, featureType);
+			int matrixRow = (matrix == null) ? -1 : matrix.indexOf(query);
+			if(matrixRow >= 0 && matrix.isCalculated(matrixRow)) {
+				TopKHeap heap = new TopKHeap(capacity);
+				matrix.search(matrixRow, from, to, heap);
+				long[] distances = new long[heap.size()];
+				return new Ranking(heap.drainSorted(distances), distances, database);
+			}
+
+			// use a k-d tree or product quantization index if the database has one
+			long[] distances = new long[capacity];
+			SearchIndex searchIndex = getSearchIndex(database, featureType);
+			if(searchIndex != null)
+				return new Ranking(searchIndex.searchTopK(query, k, from, to, distances), distances, database);
+
+			// mean images are compared coarse to fine
+			if(featureType == FeatureType.MeanImage) {
+				ImagePyramid pyramid = getImagePyramid(query.getStore());
+				if(pyramid != null)
+					return new Ranking(ShardedSearch.searchTopK(from, to, k, (start, end, heap) -> pyramid.search(query, database, start, end, heap), pool, distances), distances, database);
+			}
+
+			// the shards of the database are searched in parallel
+			int[] indices = ShardedSearch.searchTopK(from, to, k, (start, end, heap) -> {
+				for (int i = start; i < end; i++)
+					heap.offer(distance(database[i], query, featureType), i);
+			}, pool, distances);
+
+			return new Ranking(indices, distances, database);
+		});
+	}
+
+	/**
+	 * Find the k best database elements for every query with their exact distances, approximate
+	 * search indices are not used. Queries with precalculated distances or an exact search index
+	 * are answered one by one, all others are compared block by block with the database in a
+	 * shared linear scan. This is the search of the evaluations and runs within their read lock.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k
+	 * @return ranking of the k best database elements for each query
+	 */
+	public List<Ranking> retrieveBatch(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k) {
+		List<Ranking> result = new ArrayList<>(queries.length);
+
+		// distances calculated for the evaluation
+		DistanceMatrix matrix = getCachedDistanceMatrix(database, featureType);
+		int[] matrixRows = new int[queries.length];
+		for (int i = 0; i < queries.length && matrix != null; i++) {
+			matrixRows[i] = matrix.indexOf(queries[i]);
+			if(matrixRows[i] < 0 || !matrix.isCalculated(matrixRows[i]))
+				matrix = null;
+		}
+		if(matrix != null) {
+			TopKHeap heap = new TopKHeap(Math.min(k, database.length));
+			for (int matrixRow : matrixRows) {
+				matrix.search(matrixRow, heap);
+				long[] distances = new long[heap.size()];
+				result.add(new Ranking(heap.drainSorted(distances), distances, database));
+			}
+			return result;
+		}
+
+		SearchIndex searchIndex = getSearchIndex(database, featureType);
+		if(searchIndex != null && searchIndex.isExact()) {
+			for (FeatureContainer query : queries) {
+				long[] distances = new long[Math.min(k, database.length)];
+				result.add(new Ranking(searchIndex.searchTopK(query, k, distances), distances, database));
+			}
+			return result;
+		}
+
+		long[][] distances = new long[queries.length][];
+		int[][] indices = BatchSearch.searchTopK(queries, database, featureType, k, distances);
+		for (int i = 0; i < queries.length; i++)
+			result.add(new Ranking(indices[i], distances[i], database));
+		return result;
+	}
+
+	/**
+	 * Predict the category by majority vote of the first k elements of a sorted list.
+	 *
+	 * @param sortedList
+	 * @param k
+	 * @return predicted category or an empty string if the list is empty
+	 */
+	public String classify(List<FeatureContainer> sortedList, int k) {
+		synchronized (classifier) {
+			int category = classifier.classify(sortedList, k);
+			return (category < 0) ? "" : classifier.getCategory(category);
+		}
+	}
+
+	/**
+	 * Evaluate the overall performance of the system on all cores. Predict for every query
+	 * a category and compare the result against the real category. In leave-one-out mode a
+	 * query is never its own neighbour. The neighbours vote as defined by {@link #getVoting()}.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k nearest neighbors
+	 * @param leaveOneOut
+	 * @return accuracy, accuracy per category and confusion matrix
+	 */
+	public EvaluationResult evaluate(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k, boolean leaveOneOut) {
+		return evaluate(queries, database, featureType, k, leaveOneOut, 1, null, () -> false);
+	}
+
+	/**
+	 * Evaluate the queries chunk by chunk, see {@link #evaluate(FeatureContainer[], FeatureContainer[], FeatureType, int, boolean)}.
+	 * The distances of a chunk are calculated right before it gets evaluated. The listener
+	 * receives the result of all chunks so far, no further chunk is started once cancelled.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param k nearest neighbors
+	 * @param leaveOneOut
+	 * @param chunks number of query chunks
+	 * @param listener can be null
+	 * @param cancelled
+	 * @return result of the evaluated chunks or null if none was evaluated
+	 */
+	public EvaluationResult evaluate(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k, boolean leaveOneOut,
+			int chunks, EvaluationListener<EvaluationResult> listener, BooleanSupplier cancelled) {
+		return read(() -> {
+			DistanceMatrix matrix = getDistanceMatrix(queries, database, featureType);
+			EvaluationEngine engine = new EvaluationEngine(this::retrieveBatch, voting, pool);
+
+			EvaluationResult result = null;
+			int chunk = Math.max(1, (queries.length + chunks - 1) / chunks);
+			for (int start = 0; start < queries.length && !cancelled.getAsBoolean(); start += chunk) {
+				int end = Math.min(queries.length, start + chunk);
+				if(matrix != null)
+					calculate(matrix, start, end);
+				EvaluationResult part = engine.evaluate(Arrays.copyOfRange(queries, start, end), database, featureType, k, leaveOneOut);
+				result = (result == null) ? part : result.merge(part);
+				if(listener != null)
+					listener.evaluated(result, end, queries.length);
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Overall correct rate of the system for every k from 1 to kMax on all cores. Every query
+	 * is searched only once, all k are classified with its kMax nearest neighbours.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param kMax largest number of nearest neighbors
+	 * @param leaveOneOut
+	 * @return correct rate of k at index k-1
+	 */
+	public float[] sweep(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut) {
+		return sweep(queries, database, featureType, kMax, leaveOneOut, 1, null, () -> false);
+	}
+
+	/**
+	 * Sweep the queries chunk by chunk, see {@link #sweep(FeatureContainer[], FeatureContainer[], FeatureType, int, boolean)}.
+	 * The listener receives the correct rates of all chunks so far, no further chunk is
+	 * started once cancelled.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @param kMax largest number of nearest neighbors
+	 * @param leaveOneOut
+	 * @param chunks number of query chunks
+	 * @param listener can be null
+	 * @param cancelled
+	 * @return correct rate of k at index k-1 of the evaluated chunks
+	 */
+	public float[] sweep(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int kMax, boolean leaveOneOut,
+			int chunks, EvaluationListener<float[]> listener, BooleanSupplier cancelled) {
+		return read(() -> {
+			DistanceMatrix matrix = getDistanceMatrix(queries, database, featureType);
+			EvaluationEngine engine = new EvaluationEngine(this::retrieveBatch, voting, pool);
+
+			int[] correct = new int[kMax];
+			float[] accuracies = new float[kMax];
+			int chunk = Math.max(1, (queries.length + chunks - 1) / chunks);
+			for (int start = 0; start < queries.length && !cancelled.getAsBoolean(); start += chunk) {
+				int end = Math.min(queries.length, start + chunk);
+				if(matrix != null)
+					calculate(matrix, start, end);
+				int[] part = engine.countCorrect(Arrays.copyOfRange(queries, start, end), database, featureType, kMax, leaveOneOut);
+				for (int k = 0; k < kMax; k++) {
+					correct[k] += part[k];
+					accuracies[k] = correct[k] / (float) end;
+				}
+				if(listener != null)
+					listener.evaluated(accuracies.clone(), end, queries.length);
+			}
+			return accuracies;
+		});
+	}
+
+	/**
+	 * Calculate the rows of the matrix in the pool of the service
+	 */
+	private void calculate(DistanceMatrix matrix, int from, int to) {
+		pool.submit(() -> matrix.calculate(from, to)).join();
+	}
+
+	/**
+	 * Distances between all images and the elements of the image or category database. The
+	 * matrix gets created on the first call and is kept until the features change, its rows
+	 * are calculated by the evaluations which need them. Only queries of the whole image
+	 * database use a matrix. Databases with an exact search index need no matrix, neither
+	 * do those whose matrix would be too large, see {@link DistanceMatrix#fits(int, int)}.
+	 *
+	 * @param queries
+	 * @param database
+	 * @param featureType
+	 * @return distance matrix or NULL if the database is searched without a matrix
+	 */
+	protected synchronized DistanceMatrix getDistanceMatrix(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType) {
+		if(queries != imageDatabase)
+			return null;
+		DistanceMatrix matrix = getCachedDistanceMatrix(database, featureType);
+		if(matrix != null || imageDatabase.length == 0 || (database != imageDatabase && database != categoryDatabase))
+			return matrix;
+		SearchIndex searchIndex = getSearchIndex(database, featureType);
+		if((searchIndex != null && searchIndex.isExact()) || !DistanceMatrix.fits(imageDatabase.length, database.length))
+			return null;
+
+		matrix = new DistanceMatrix(imageDatabase, database, featureType);
+		distanceMatrices.add(matrix);
+		return matrix;
+	}
+
+	/**
+	 * Distance matrix of the database and feature type if it was already calculated.
+	 *
+	 * @param database
+	 * @param featureType
+	 * @return distance matrix or NULL
+	 */
+	protected synchronized DistanceMatrix getCachedDistanceMatrix(FeatureContainer[] database, FeatureType featureType) {
+		for (DistanceMatrix matrix : distanceMatrices)
+			if(matrix.isBuiltFor(database, featureType))
+				return matrix;
+		return null;
+	}
+
+	/**
+	 * Search arrays of the current features, the matrices and indices of the old arrays are dropped.
+	 * The classifier forgets the ids of categories which might not exist anymore.
+	 */
+	private synchronized void resetDatabases() {
+		imageDatabase = imageFeatures.values().toArray(new FeatureContainer[0]);
+		categoryDatabase = categoryFeatures.values().toArray(new FeatureContainer[0]);
+		distanceMatrices.clear();
+		searchIndices.clear();
+		imagePyramid = null;
+		synchronized (classifier) {
+			classifier.clear();
+		}
+	}
+
+	/**
+	 * Build the search indices of both databases and the mean image pyramid of the current
+	 * features. Low dimensional feature types get an exact k-d tree, high dimensional ones
+	 * of large databases an approximate product quantization index with an exact re-ranking
+	 * of the best candidates. Every index can be used as soon as it is built, searches
+	 * without an index scan the database in the meantime. Indices of features which
+	 * changed during the build are dropped.
+	 *
+	 * @param approximate build the approximate indices as well, only single searches use them
+	 * @param cancelled stops the build before the next index
+	 */
+	public void buildSearchIndices(boolean approximate, BooleanSupplier cancelled) {
+		FeatureStore store;
+		FeatureContainer[] images, categories;
+		synchronized (this) {
+			store = featureStore;
+			images = imageDatabase;
+			categories = categoryDatabase;
+		}
+		if(store == null) return;
+
+		// the fast ones first, the product quantization needs to be trained
+		FeatureContainer[][] databases = { images, categories };
+		for (FeatureContainer[] database : databases)
+			for (FeatureType featureType : store.getTypes())
+				if(!cancelled.getAsBoolean() && database.length > 0 && store.getDimension(featureType) <= KD_TREE_MAX_DIMENSION)
+					addSearchIndex(new KdTree(database, featureType), images, categories);
+
+		if(!cancelled.getAsBoolean()) {
+			ImagePyramid pyramid = pool.submit(() -> new ImagePyramid(store, PYRAMID_GRID_SIZES)).join();
+			synchronized (this) {
+				if(images == imageDatabase && categories == categoryDatabase)
+					imagePyramid = pyramid;
+			}
+		}
+
+		for (FeatureContainer[] database : databases)
+			for (FeatureType featureType : store.getTypes())
+				if(approximate && !cancelled.getAsBoolean() && store.getDimension(featureType) >= PQ_MIN_DIMENSION && database.length >= PQ_MIN_DATABASE_SIZE)
+					addSearchIndex(pool.submit(() -> new ProductQuantizationIndex(database, featureType, PQ_SUBSPACES, PQ_CENTROIDS, 
+							PQ_TRAINING_SIZE, PQ_ITERATIONS, PQ_RERANK_SIZE, 42)).join(), images, categories);
+	}
+
+	/**
+	 * Use the index if the databases have not changed since the build started
+	 */
+	private synchronized void addSearchIndex(SearchIndex index, FeatureContainer[] images, FeatureContainer[] categories) {
+		if(images == imageDatabase && categories == categoryDatabase)
+			searchIndices.add(index);
+	}
+
+	/**
+	 * Search index of the database for the feature type, see {@link #buildSearchIndices(boolean, BooleanSupplier)}.
+	 * Only the image and category database have indices.
+	 *
+	 * @param database
+	 * @param featureType
+	 * @return search index or NULL if the database needs to be scanned linearly
+	 */
+	public synchronized SearchIndex getSearchIndex(FeatureContainer[] database, FeatureType featureType) {
+		for (SearchIndex index : searchIndices)
+			if(index.isBuiltFor(database, featureType))
+				return index;
+		return null;
+	}
+
+	/**
+	 * Mean image pyramid of the precalculated features, see {@link #buildSearchIndices(boolean, BooleanSupplier)}.
+	 *
+	 * @param store
+	 * @return pyramid or NULL if the store contains no precalculated features or the pyramid is not built yet
+	 */
+	protected synchronized ImagePyramid getImagePyramid(FeatureStore store) {
+		return (imagePyramid != null && imagePyramid.getStore() == store) ? imagePyramid : null;
+	}
+}
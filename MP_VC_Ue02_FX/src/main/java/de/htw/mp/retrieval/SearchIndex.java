@@ -0,0 +1,65 @@
+package de.htw.mp.retrieval;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Index over the feature vectors of a database which answers k nearest
+ * neighbour queries without comparing the query to every element.
+ *
+ * @author Nico Hezel
+ */
+public interface SearchIndex {
+
+	/**
+	 * Find the k database elements nearest to the query.
+	 *
+	 * @param query
+	 * @param k
+	 * @return database indices, best first
+	 */
+	public default int[] searchTopK(FeatureContainer query, int k) {
+		return searchTopK(query, k, null);
+	}
+
+	/**
+	 * Find the k database elements nearest to the query together with their distances.
+	 * Approximate indices return approximate distances unless they re-rank the elements.
+	 *
+	 * @param query
+	 * @param k
+	 * @param distances receives the distances of the returned elements, can be null
+	 * @return database indices, best first
+	 */
+	public int[] searchTopK(FeatureContainer query, int k, long[] distances);
+
+	/**
+	 * Find the k elements between from (inclusive) and to (exclusive) of the database
+	 * nearest to the query together with their distances, e.g. to search a database
+	 * slice by slice.
+	 *
+	 * @param query
+	 * @param k
+	 * @param from
+	 * @param to
+	 * @param distances receives the distances of the returned elements, can be null
+	 * @return database indices, best first
+	 */
+	public int[] searchTopK(FeatureContainer query, int k, int from, int to, long[] distances);
+
+	/**
+	 * Was this index built for exactly this database array and feature type
+	 *
+	 * @param database
+	 * @param featureType
+	 * @return
+	 */
+	public boolean isBuiltFor(FeatureContainer[] database, FeatureType featureType);
+
+	/**
+	 * Does the index return the same elements in the same order as a linear scan
+	 *
+	 * @return
+	 */
+	public boolean isExact();
+}
@@ -0,0 +1,117 @@
+package de.htw.mp.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Search of a single query in a database which is split into contiguous shards,
+ * one per worker of a fork-join pool. All shards are searched in parallel, each
+ * into its own top k heap, and the heaps are merged afterwards. Elements with the
+ * same distance are ordered by their position in the database, therefore the results
+ * are the same as of a search of the whole database.
+ *
+ * Queries which already run inside of a fork-join pool, e.g. those of an evaluation,
+ * are searched in a single shard because all workers are busy anyway.
+ *
+ * @author Nico Hezel
+ */
+public final class ShardedSearch {
+
+	/**
+	 * Smallest number of database elements per shard
+	 */
+	public static final int MIN_SHARD_SIZE = 1024;
+
+	/**
+	 * Offers the database elements between from (inclusive) and to (exclusive) to a heap
+	 */
+	@FunctionalInterface
+	public static interface Shard {
+		public void search(int from, int to, TopKHeap heap);
+	}
+
+	private ShardedSearch() {
+	}
+
+	/**
+	 * Number of shards of a database
+	 *
+	 * @param size of the database
+	 * @param parallelism of the pool
+	 * @return
+	 */
+	public static int shardCount(int size, int parallelism) {
+		if(ForkJoinTask.inForkJoinPool())
+			return 1;
+		return Math.max(1, Math.min(parallelism, size / MIN_SHARD_SIZE));
+	}
+
+	/**
+	 * Find the k best elements of a database
+	 *
+	 * @param size of the database
+	 * @param k
+	 * @param shard searches a part of the database
+	 * @param pool
+	 * @return database indices, best first
+	 */
+	public static int[] searchTopK(int size, int k, Shard shard, ForkJoinPool pool) {
+		return searchTopK(0, size, k, shard, pool, null);
+	}
+
+	/**
+	 * Find the k best elements between from (inclusive) and to (exclusive) of a database
+	 *
+	 * @param from
+	 * @param to
+	 * @param k
+	 * @param shard searches a part of the range
+	 * @param pool
+	 * @param distances receives the distances of the returned elements, can be null
+	 * @return database indices, best first
+	 */
+	public static int[] searchTopK(int from, int to, int k, Shard shard, ForkJoinPool pool, long[] distances) {
+		int size = to - from;
+		int capacity = Math.min(k, size);
+		int shards = shardCount(size, pool.getParallelism());
+		TopKHeap result = new TopKHeap(capacity);
+		if(shards == 1) {
+			shard.search(from, to, result);
+			return (distances == null) ? result.drainSorted() : result.drainSorted(distances);
+		}
+
+		// scatter
+		TopKHeap[] heaps = new TopKHeap[shards];
+		List<RecursiveAction> tasks = new ArrayList<>(shards);
+		for (int s = 0; s < shards; s++) {
+			int index = s;
+			int shardFrom = from + (int) ((long) size * s / shards);
+			int shardTo = from + (int) ((long) size * (s + 1) / shards);
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					heaps[index] = new TopKHeap(capacity);
+					shard.search(shardFrom, shardTo, heaps[index]);
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		// gather
+		for (TopKHeap heap : heaps)
+			result.addAll(heap);
+		return (distances == null) ? result.drainSorted() : result.drainSorted(distances);
+	}
+}
@@ -0,0 +1,164 @@
+package de.htw.mp.retrieval;
+
+/**
+ * Bounded max-heap which keeps the k smallest distances together with the
+ * index of the database element. Distances and indices are stored in primitive
+ * arrays, nothing gets boxed. Elements with equal distances are ordered by their
+ * index, therefore the result is deterministic and no element gets lost.
+ *
+ * @author Nico Hezel
+ */
+public class TopKHeap {
+
+	protected final long[] distances;
+	protected final int[] indices;
+	protected int size;
+
+	public TopKHeap(int k) {
+		this.distances = new long[Math.max(k, 0)];
+		this.indices = new int[Math.max(k, 0)];
+	}
+
+	/**
+	 * Add an element if it is smaller than the current k-th best.
+	 *
+	 * @param distance
+	 * @param index
+	 * @return true if the element was added
+	 */
+	public boolean offer(long distance, int index) {
+		if(size < distances.length) {
+			int pos = size++;
+			distances[pos] = distance;
+			indices[pos] = index;
+			siftUp(pos);
+			return true;
+		}
+
+		if(size == 0 || !isSmaller(distance, index, distances[0], indices[0]))
+			return false;
+
+		// replace the worst element
+		distances[0] = distance;
+		indices[0] = index;
+		siftDown(0, size);
+		return true;
+	}
+
+	/**
+	 * Largest distance which would still enter the heap, or Long.MAX_VALUE as long as the heap is not full.
+	 *
+	 * @return
+	 */
+	public long threshold() {
+		return (size < distances.length || size == 0) ? Long.MAX_VALUE : distances[0];
+	}
+
+	/**
+	 * Offer all elements of another heap, e.g. the best elements of a part of the database.
+	 *
+	 * @param other
+	 */
+	public void addAll(TopKHeap other) {
+		for (int i = 0; i < other.size; i++)
+			offer(other.distances[i], other.indices[i]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return distances.length;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Sorts the content of the heap in ascending order and returns the indices.
+	 * The heap is empty afterwards.
+	 *
+	 * @return indices of the k best elements, best first
+	 */
+	public int[] drainSorted() {
+		int count = size;
+
+		// in-place heap sort: move the current maximum to the end
+		for (int end = count - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		size = 0;
+
+		int[] result = new int[count];
+		System.arraycopy(indices, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Sorts the content of the heap like {@link #drainSorted()} and copies the
+	 * distances of the returned elements.
+	 *
+	 * @param distances receives the distances in the same order, needs room for {@link #size()} elements
+	 * @return indices of the k best elements, best first
+	 */
+	public int[] drainSorted(long[] distances) {
+		int[] result = drainSorted();
+		System.arraycopy(this.distances, 0, distances, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Distance of the i-th element after {@link #drainSorted()} was called.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long sortedDistance(int i) {
+		return distances[i];
+	}
+
+	private void siftUp(int pos) {
+		while(pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if(!isSmaller(distances[parent], indices[parent], distances[pos], indices[pos]))
+				break;
+			swap(pos, parent);
+			pos = parent;
+		}
+	}
+
+	private void siftDown(int pos, int end) {
+		while(true) {
+			int largest = pos;
+			int left = 2 * pos + 1;
+			int right = left + 1;
+			if(left < end && isSmaller(distances[largest], indices[largest], distances[left], indices[left]))
+				largest = left;
+			if(right < end && isSmaller(distances[largest], indices[largest], distances[right], indices[right]))
+				largest = right;
+			if(largest == pos)
+				break;
+			swap(pos, largest);
+			pos = largest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long d = distances[a];
+		distances[a] = distances[b];
+		distances[b] = d;
+		int i = indices[a];
+		indices[a] = indices[b];
+		indices[b] = i;
+	}
+
+	/**
+	 * Order by distance and afterwards by index
+	 */
+	private static boolean isSmaller(long d1, int i1, long d2, int i2) {
+		return d1 < d2 || (d1 == d2 && i1 < i2);
+	}
+}
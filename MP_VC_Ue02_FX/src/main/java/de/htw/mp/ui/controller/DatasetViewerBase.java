@@ -4,34 +4,49 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import de.htw.mp.feature.DatasetWatcher;
+import de.htw.mp.feature.FeatureExtractionPipeline;
 import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureIndexFile;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+import de.htw.mp.retrieval.EvaluationResult;
+import de.htw.mp.retrieval.Ranking;
+import de.htw.mp.retrieval.RetrievalService;
+import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.DirectoryChooser;
 
@@ -46,36 +61,90 @@ import javafx.stage.DirectoryChooser;
 public abstract class DatasetViewerBase {
 	
 	/**
-	 * Type of features
+	 * For each image category exists a file list
+	 */
+	private Map<String, Path[]> categoryToFileList = new HashMap<>();
+	
+	/**
+	 * Features, search indices and evaluation of the opened directory
+	 */
+	protected final RetrievalService retrievalService = new RetrievalService();
+	
+	/**
+	 * Maximal number of search results listed in the ranking
+	 */
+	private static final int RANKING_SIZE = 100;
+	
+	/**
+	 * Background task which precalculates the features of the opened directory
+	 */
+	private Task<FeatureExtractionPipeline.Result> loadingTask;
+	
+	/**
+	 * Background build of the search indices after the features have changed
+	 */
+	private Task<Void> indexTask;
+	
+	/**
+	 * Background search of the last double click, a newer double click cancels it
+	 */
+	private Task<List<FeatureContainer>> retrievalTask;
+	
+	/**
+	 * Background evaluation or sweep of the last click on the evaluation or sweep button
 	 */
-	public static enum FeatureType { 
-		MeanColor, MeanImage;
+	private Task<?> evaluationTask;
+	
+	/**
+	 * Largest k of a sweep
+	 */
+	private static final int SWEEP_MAX_K = 50;
+	
+	/**
+	 * Number of rankings kept for repeated queries
+	 */
+	private static final int QUERY_CACHE_SIZE = 256;
+	
+	/**
+	 * Rankings of the last queries by feature type, database and file name, least recently 
+	 * used first. The rankings are valid as long as the databases do not change.
+	 */
+	private final Map<String, FeatureContainer[]> queryCache = Collections.synchronizedMap(new LinkedHashMap<String, FeatureContainer[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
 		
-		public static FeatureType get(String value) {
-			return FeatureType.valueOf(value.replaceAll(" ", ""));
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FeatureContainer[]> eldest) {
+			return size() > QUERY_CACHE_SIZE;
 		}
-	};
-
+	});
+	
 	/**
-	 * For each image category exists a file list
+	 * Part of the database searched before the first results get listed. Every following
+	 * slice is as large as all previous ones together, the ranking is refined after each slice.
 	 */
-	private Map<String, Path[]> categoryToFileList = new HashMap<>();
+	private static final int FIRST_SLICE_FRACTION = 64;
 	
 	/**
-	 * Map from category name to the feature container of a category
+	 * Number of query chunks of an evaluation or sweep, the correct rate is updated after each chunk
 	 */
-	private Map<String, FeatureContainer> categoryFeatures = new HashMap<>();
+	private static final int EVALUATION_CHUNKS = 20;
 	
 	/**
-	 * Map from filename to feature container for the image
+	 * Updates the features while images are added or removed in the opened directory
 	 */
-	private Map<String, FeatureContainer> imageFeatures = new HashMap<>();
+	private DatasetWatcher datasetWatcher;
 	
 	/**
 	 * "Open Folder" Button
 	 */
 	@FXML
 	protected Button openDirectoryBtn;
+	
+	/**
+	 * Progress of the feature calculation
+	 */
+	@FXML
+	protected ProgressBar progressBar;
 
 	/**
 	 * Content of the left list
@@ -101,6 +170,12 @@ public abstract class DatasetViewerBase {
 	@FXML
 	protected Pane colorPane;
 	
+	/**
+	 * Contains a radio button for every feature type
+	 */
+	@FXML
+	protected VBox featureBox;
+	
 	/**
 	 * Which type of feature was selected
 	 */
@@ -143,6 +218,12 @@ public abstract class DatasetViewerBase {
 	@FXML
 	protected Label correctRateLabel;
 	
+	/**
+	 * Evaluate every k and select the best one
+	 */
+	@FXML
+	protected Button sweepBtn;
+	
 
 	/**
 	 * Gets called once at program start
@@ -160,6 +241,15 @@ public abstract class DatasetViewerBase {
 		Image image = new Image(res.toString());
 		imagePane.setImage(image);
 		
+		// one radio button per registered feature type, the first one is selected
+		for (FeatureType featureType : FeatureType.values()) {
+			RadioButton button = new RadioButton(featureType.getDisplayName());
+			button.setMnemonicParsing(false);
+			button.setToggleGroup(featureGroup);
+			featureBox.getChildren().add(button);
+		}
+		featureGroup.selectToggle(featureGroup.getToggles().get(0));
+		
 		registerEventHandler();
 	};
 
@@ -174,6 +264,9 @@ public abstract class DatasetViewerBase {
 		// call onEvaluationClick if the evaluationBtn gets pressed
 		evaluationBtn.setOnAction(this::onEvaluationClick);
 		
+		// call onSweepClick if the sweepBtn gets pressed
+		sweepBtn.setOnAction(this::onSweepClick);
+		
 		// call onCategoryListChange if a item in the categoryList view gets selected
 		categoryList.getSelectionModel().selectedItemProperty().addListener(this::onCategoryListChange);
 
@@ -185,7 +278,10 @@ public abstract class DatasetViewerBase {
 	}
 
 	/**
-	 * If a double click is registered a search will be triggered.
+	 * If a double click is registered a search will be triggered. The search runs in a
+	 * background task and lists the best elements found so far while it is running.
+	 * A search which is still running gets cancelled. The rankings of recent searches are 
+	 * cached until the features change.
 	 * 
 	 * @param click
 	 */
@@ -194,28 +290,113 @@ public abstract class DatasetViewerBase {
 
 			// get the query
 			String filename = imageFileList.getSelectionModel().getSelectedItem();
-			FeatureContainer query = imageFeatures.get(filename);
+			if(retrievalService.getImageFeature(filename) == null) return;
 
 			// get the database
 			String dbName = ((RadioButton) databaseGroup.getSelectedToggle()).getText();
-			Map<String, FeatureContainer> database = ("All Images".equalsIgnoreCase(dbName)) ? imageFeatures : categoryFeatures;
+			boolean imageDatabase = "All Images".equalsIgnoreCase(dbName);
+			FeatureContainer[] database = imageDatabase ? retrievalService.getImageDatabase() : retrievalService.getCategoryDatabase();
 
-			// sort the elements
+			// find the best elements, only as many as listed or needed for the prediction
+			int kNN = Integer.parseInt(kNearestNeighbours.getText());
 			FeatureType featureType = FeatureType.get(((RadioButton) featureGroup.getSelectedToggle()).getText());
-			List<FeatureContainer> result = retrieve(query, database.values().toArray(new FeatureContainer[0]), featureType);
-
-			// list all search results
+			int rankingSize = Math.max(kNN, RANKING_SIZE);
+			
+			if(retrievalTask != null)
+				retrievalTask.cancel();
+			retrievalTask = null;
 			rankList.getItems().clear();
-			for (FeatureContainer element : result)
-				rankList.getItems().add(element.getName());
-
-			// make a prediction
-			int kNN = Integer.parseInt(kNearestNeighbours.getText());
-			String prediction = classify(result, kNN);
-			predictionResult.setText(prediction);
+			predictionResult.setText("");
+			
+			// repeated queries are answered from the cache, if it has enough elements
+			String cacheKey = featureType.name() + "/" + dbName + "/" + filename;
+			FeatureContainer[] cached = queryCache.get(cacheKey);
+			if(cached != null && (cached.length >= rankingSize || cached.length == database.length)) {
+				List<FeatureContainer> ranking = Arrays.asList(cached).subList(0, Math.min(rankingSize, cached.length));
+				showRanking(ranking);
+				predictionResult.setText(classify(ranking, kNN));
+				return;
+			}
+			
+			Task<List<FeatureContainer>> task = new Task<List<FeatureContainer>>() {
+				
+				@Override
+				protected List<FeatureContainer> call() throws Exception {
+					
+					// the features do not change during the search, the query and database are looked
+					// up again because their rows might belong to other images by now
+					return retrievalService.read(() -> {
+						FeatureContainer query = retrievalService.getImageFeature(filename);
+						FeatureContainer[] database = imageDatabase ? retrievalService.getImageDatabase() : retrievalService.getCategoryDatabase();
+						if(query == null)
+							return Collections.<FeatureContainer>emptyList();
+						
+						// a search index answers at once
+						if(retrievalService.getSearchIndex(database, featureType) != null)
+							return retrievalService.retrieveTopK(query, database, featureType, rankingSize);
+						
+						// search slice by slice and merge the results into the ranking so far
+						List<FeatureContainer> ranking = new ArrayList<>();
+						long[] distances = new long[0];
+						int slice = Math.max(1, database.length / FIRST_SLICE_FRACTION);
+						for (int start = 0; start < database.length && !isCancelled(); slice = start) {
+							int end = Math.min(database.length, start + slice);
+							Ranking sliceRanking = retrievalService.retrieveTopK(query, database, start, end, featureType, rankingSize);
+						
+							// elements of earlier slices come first if the distances are the same
+							List<FeatureContainer> merged = new ArrayList<>();
+							long[] mergedDistances = new long[Math.min(rankingSize, ranking.size() + sliceRanking.size())];
+							for (int i = 0, j = 0; merged.size() < mergedDistances.length; ) {
+								if(j == sliceRanking.size() || (i < ranking.size() && distances[i] <= sliceRanking.getDistance(j))) {
+									mergedDistances[merged.size()] = distances[i];
+									merged.add(ranking.get(i++));
+								} else {
+									mergedDistances[merged.size()] = sliceRanking.getDistance(j);
+									merged.add(sliceRanking.get(j++));
+								}
+							}
+							ranking = merged;
+							distances = mergedDistances;
+						
+							updateValue(ranking);
+							updateProgress(end, database.length);
+							start = end;
+						}
+						return ranking;
+					});
+				}
+			};
+			
+			// list the search results, results of replaced searches are ignored
+			task.valueProperty().addListener((observable, oldValue, ranking) -> {
+				if(task != retrievalTask || ranking == null) return;
+				showRanking(ranking);
+			});
+			
+			// make a prediction and remember the ranking
+			task.setOnSucceeded(event -> {
+				predictionResult.setText(classify(task.getValue(), kNN));
+				if(database == retrievalService.getImageDatabase() || database == retrievalService.getCategoryDatabase())
+					queryCache.put(cacheKey, task.getValue().toArray(new FeatureContainer[0]));
+			});
+			task.setOnFailed(event -> task.getException().printStackTrace());
+			
+			retrievalTask = task;
+			startTask(task, "retrieval");
 		}
 	}
 	
+	/**
+	 * List the names of the ranked elements
+	 * 
+	 * @param ranking
+	 */
+	private void showRanking(List<FeatureContainer> ranking) {
+		rankList.getItems().clear();
+		for (FeatureContainer element : ranking)
+			rankList.getItems().add(element.getName());
+	}
+	
 	/**
 	 * Analysis all images inside the selected category and paint their mean
 	 * color in the color panel. Lists all image files of the category in the
@@ -225,7 +406,7 @@ public abstract class DatasetViewerBase {
 	 */
 	private void onCategoryListChange(ObservableValue<? extends String> observable, String oldValue, String newValue) {		
 		if (newValue != null && oldValue != newValue) {		
-			updateMeanColorAndImage(this.categoryFeatures.get(newValue));
+			updateMeanColorAndImage(retrievalService.getCategoryFeature(newValue));
 
 			// list all the image file names
 			imageFileList.getItems().clear();
@@ -241,16 +422,30 @@ public abstract class DatasetViewerBase {
 	 */
 	private void onImageFileListChange(ObservableValue<? extends String> observable, String oldValue, String newValue) {
 		if (newValue != null && oldValue != newValue)
-			updateMeanColorAndImage(this.imageFeatures.get(newValue));
+			updateMeanColorAndImage(retrievalService.getImageFeature(newValue));
 	}
 	
 	/**
-	 * Display the mean color and mean image
+	 * Display the mean color and mean image of an image or category. The UI thread
+	 * does not wait for a change of the features, a changed category gets displayed
+	 * again once the change is applied.
 	 * 
-	 * @param imageFiles
+	 * @param feature or NULL if there is no such image or category
 	 */
 	private void updateMeanColorAndImage(FeatureContainer feature) {
-		updateMeanColorAndImage(feature.getMeanColor(), feature.getMeanImage());
+		if(feature == null) return;
+		FeatureStore store = feature.getStore();
+		
+		byte[] colors = store.get(FeatureType.MeanColor, feature.getRow());
+		Color meanColor = Color.rgb(colors[0] & 0xFF, colors[1] & 0xFF, colors[2] & 0xFF);
+		
+		// the image is only created for the display and not retained in the feature
+		int width = store.getImageWidth(), height = store.getImageHeight();
+		WritableImage meanImage = new WritableImage(width, height);
+		meanImage.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteRgbInstance(), 
+				store.get(FeatureType.MeanImage, feature.getRow()), 0, width * 3);
+		
+		updateMeanColorAndImage(meanColor, meanImage);
 	}
 	
 	/**
@@ -282,43 +477,31 @@ public abstract class DatasetViewerBase {
 		if(dir == null) return;
 
 		// read all image files from the directory
-		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.toPath(), "*.{jpg,jpeg,png}")) {
-			Map<String, List<Path>> categories = new HashMap<>();
-			for (Path imageFile : files) {
-				String name = imageFile.getFileName().toString().split("_")[0];
-				List<Path> cat = categories.getOrDefault(name, new ArrayList<Path>());
-				cat.add(imageFile);
-				categories.putIfAbsent(name, cat);
-			}
-			
-			// copy over
-			categoryToFileList.clear();
-			categories.forEach((key, value) -> { categoryToFileList.put(key, value.toArray(new Path[0])); });
-			
+		Map<String, Path[]> categoryFiles = new HashMap<>();
+		try {
+			categoryFiles.putAll(FeatureExtractionPipeline.readCategories(dir.toPath()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 					
 		// create an "All" category
-		Path[] all = categoryToFileList.values()
-							   		   .stream()
-							   		   .flatMap(files -> Arrays.stream(files))
-							   		   .toArray(Path[]::new);
+		Path[] all = categoryFiles.values()
+							   	  .stream()
+							   	  .flatMap(files -> Arrays.stream(files))
+							   	  .toArray(Path[]::new);
+		categoryFiles.put("All", all);
 		
-		// list all category names
+		// calculate all the mean colors and mean images for all files in the background
+		stopWatching();
+		cancelQueries();
 		resetAll();
-		categoryList.getItems().add("All");
-		categoryToFileList.keySet().stream().sorted().forEach(name -> categoryList.getItems().add(name));
-		
-		// now add the All category
-		categoryToFileList.put("All", all);
-		
-		// calculate all the mean colors and mean images for all files
-		precalculateFeatures(categoryToFileList);
+		precalculateFeatures(dir.toPath(), categoryFiles);
 	}
 	
 	/**
-	 * Calculate the overall correct rate of the system.
+	 * Calculate the overall correct rate of the system. The queries are evaluated 
+	 * chunk by chunk in a background task, the correct rate of the evaluated queries 
+	 * is shown while it is running. An evaluation which is still running gets cancelled.
 	 * 
 	 * @param event
 	 */
@@ -326,48 +509,312 @@ public abstract class DatasetViewerBase {
 		
 		// get the database
 		String dbName = ((RadioButton) databaseGroup.getSelectedToggle()).getText();
-		Map<String, FeatureContainer> database = ("All Images".equalsIgnoreCase(dbName)) ? imageFeatures : categoryFeatures;
+		boolean imageDatabase = "All Images".equalsIgnoreCase(dbName);
 
-		// evaluate the system
+		// evaluate the system, an image should not vote for its own category
 		int kNN = Integer.parseInt(kNearestNeighbours.getText());
 		FeatureType featureType = FeatureType.get(((RadioButton) featureGroup.getSelectedToggle()).getText());
-		float correctRate = evaluate(imageFeatures.values().toArray(new FeatureContainer[0]), database.values().toArray(new FeatureContainer[0]), featureType, kNN);
 		
-		correctRateLabel.setText("Correct Rate: "+(int)(correctRate*100)+"%");
+		if(evaluationTask != null)
+			evaluationTask.cancel();
+		
+		Task<EvaluationResult> task = new Task<EvaluationResult>() {
+			
+			@Override
+			protected EvaluationResult call() throws Exception {
+				
+				// the features do not change during the evaluation
+				return retrievalService.read(() -> {
+					FeatureContainer[] queries = retrievalService.getImageDatabase();
+					FeatureContainer[] database = imageDatabase ? queries : retrievalService.getCategoryDatabase();
+					return retrievalService.evaluate(queries, database, featureType, kNN, imageDatabase, EVALUATION_CHUNKS, (result, done, total) -> {
+						updateValue(result);
+						updateProgress(done, total);
+					}, this::isCancelled);
+				});
+			}
+		};
+		
+		// show the correct rate so far, results of replaced evaluations are ignored
+		task.valueProperty().addListener((observable, oldValue, result) -> {
+			if(task != evaluationTask || result == null) return;
+			correctRateLabel.setText("Correct Rate: "+(int)(result.getAccuracy()*100)+"% ("+result.getQueryCount()+"/"+(long) task.getTotalWork()+")");
+		});
+		task.setOnSucceeded(e -> {
+			EvaluationResult result = task.getValue();
+			correctRateLabel.setText("Correct Rate: "+((result == null) ? 0 : (int)(result.getAccuracy()*100))+"%");
+		});
+		task.setOnFailed(e -> task.getException().printStackTrace());
+		
+		evaluationTask = task;
+		startTask(task, "evaluation");
 	}
 	
 	/**
-	 * Compute all images and categories in advance and store them.
+	 * Evaluate all k from 1 to {@link #SWEEP_MAX_K} in a background task and select 
+	 * the k with the highest correct rate. All k are scored from one search per query.
+	 * An evaluation which is still running gets cancelled.
 	 * 
-	 * @param categoryToFileList
+	 * @param event
 	 */
-	private void precalculateFeatures(Map<String, Path[]> categories) {
+	private void onSweepClick(ActionEvent event) {
+		
+		// get the database
+		String dbName = ((RadioButton) databaseGroup.getSelectedToggle()).getText();
+		boolean imageDatabase = "All Images".equalsIgnoreCase(dbName);
+		
+		FeatureType featureType = FeatureType.get(((RadioButton) featureGroup.getSelectedToggle()).getText());
+		
+		if(evaluationTask != null)
+			evaluationTask.cancel();
 		
-		categoryFeatures.clear();
-		categories.forEach((categoryName, categoryFiles) -> {
-			if("All".equalsIgnoreCase(categoryName)) return;
+		Task<float[]> task = new Task<float[]>() {
 			
-			String name = categoryName;
-			Color meanColor = getMeanColor(categoryFiles);
-			Image meanImage = getMeanImage(categoryFiles);
-			FeatureContainer feature = new FeatureContainer(name, categoryName, meanColor, meanImage);
-			categoryFeatures.put(name, feature);
+			@Override
+			protected float[] call() throws Exception {
+				
+				// the features do not change during the sweep
+				return retrievalService.read(() -> {
+					FeatureContainer[] queries = retrievalService.getImageDatabase();
+					FeatureContainer[] database = imageDatabase ? queries : retrievalService.getCategoryDatabase();
+					return retrievalService.sweep(queries, database, featureType, SWEEP_MAX_K, imageDatabase, EVALUATION_CHUNKS,
+							(accuracies, done, total) -> updateProgress(done, total), this::isCancelled);
+				});
+			}
+		};
+		
+		// the smallest k wins if several have the same correct rate
+		task.setOnSucceeded(e -> {
+			float[] accuracies = task.getValue();
+			int best = 0;
+			for (int k = 1; k < accuracies.length; k++)
+				if(accuracies[k] > accuracies[best])
+					best = k;
+			kNearestNeighbours.setText(String.valueOf(best + 1));
+			correctRateLabel.setText("Correct Rate: "+(int)(accuracies[best]*100)+"% (best k="+(best + 1)+")");
 		});
+		task.setOnFailed(e -> task.getException().printStackTrace());
+		
+		evaluationTask = task;
+		startTask(task, "sweep");
+	}
+	
+	/**
+	 * Compute all images and categories in advance and store them. The work is done
+	 * in a background task, a still running task of a previous directory gets cancelled.
+	 * Features of unchanged files are taken from the index file inside of the directory,
+	 * the index gets updated afterwards. The categories are listed once all features are
+	 * ready, from then on the directory is watched for changes and the search indices
+	 * are built in another background task. Until then the searches scan the database.
+	 * 
+	 * @param directory
+	 * @param categories
+	 */
+	private void precalculateFeatures(Path directory, Map<String, Path[]> categories) {
+		if(loadingTask != null) 
+			loadingTask.cancel();
 		
-		imageFeatures.clear();
-		categories.forEach((categoryName, categoryFiles) -> {
-			if("All".equalsIgnoreCase(categoryName)) return;
+		FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline();
+		AtomicReference<DatasetWatcher> watcher = new AtomicReference<>();
+		Task<FeatureExtractionPipeline.Result> task = new Task<FeatureExtractionPipeline.Result>() {
 			
-			for (Path imageFile : categoryFiles) {	
-				String name = imageFile.getFileName().toString();
-				Color meanColor = getMeanColor(imageFile);
-				Image meanImage = getMeanImage(imageFile);
-				FeatureContainer feature = new FeatureContainer(name, categoryName, meanColor, meanImage);
-				imageFeatures.put(name, feature);
-			}			
+			@Override
+			protected FeatureExtractionPipeline.Result call() throws Exception {
+				
+				// features of the last time this directory was opened
+				Path indexFile = directory.resolve(FeatureIndexFile.FILE_NAME);
+				FeatureIndexFile index = FeatureIndexFile.read(indexFile);
+				FeatureExtractionPipeline.Result result = pipeline.run(categories, index, this::updateProgress);
+				
+				// update the index if something has changed
+				if(result.differsFrom(index)) {
+					try {
+						FeatureIndexFile.write(indexFile, directory, result.getCategoryFeatures().values(), result.getImageFeatures().values());
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				
+				// the searches and evaluations use the new features from now on, the service closes the old ones
+				if(isCancelled()) {
+					result.getStore().close();
+					return result;
+				}
+				retrievalService.setFeatures(result);
+				updateProgress(-1, 1);
+				
+				// the watcher sums up the categories from the index, it gets started once the categories are listed
+				try {
+					watcher.set(new DatasetWatcher(directory, result, retrievalService::update, DatasetViewerBase.this::onFeatureChange));
+					if(isCancelled())
+						watcher.get().close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return result;
+			}
+			
+			@Override
+			protected void cancelled() {
+				pipeline.cancel();
+				try {
+					if(watcher.get() != null)
+						watcher.get().close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		
+		task.setOnSucceeded(event -> {
+			queryCache.clear();
+			categoryToFileList.clear();
+			categoryToFileList.putAll(categories);
+			
+			// list all category names
+			categoryList.getItems().add("All");
+			categories.keySet().stream().filter(name -> !"All".equals(name)).sorted().forEach(name -> categoryList.getItems().add(name));
+			
+			datasetWatcher = watcher.get();
+			if(datasetWatcher != null)
+				datasetWatcher.start();
+			rebuildSearchIndices();
 		});
+		task.setOnFailed(event -> task.getException().printStackTrace());
+		
+		loadingTask = task;
+		startTask(task, "feature-extraction");
 	}
-
+	
+	/**
+	 * Run a task in a background thread, the progress bar shows its progress.
+	 * 
+	 * @param task
+	 * @param name of the thread
+	 */
+	private void startTask(Task<?> task, String name) {
+		progressBar.progressProperty().bind(task.progressProperty());
+		progressBar.visibleProperty().bind(task.runningProperty());
+		
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Cancel the running search and evaluation
+	 */
+	private void cancelQueries() {
+		if(retrievalTask != null)
+			retrievalTask.cancel();
+		if(evaluationTask != null)
+			evaluationTask.cancel();
+		retrievalTask = null;
+		evaluationTask = null;
+	}
+	
+	/**
+	 * The features of an image file and its category were changed by the dataset watcher.
+	 * Runs on the watcher thread while no search or evaluation is running, the searches
+	 * use the new features from now on. The lists are updated on the UI thread.
+	 * 
+	 * @param imageFile
+	 * @param category
+	 * @param removed
+	 */
+	private void onFeatureChange(Path imageFile, String category, boolean removed) {
+		retrievalService.featuresChanged();
+		Platform.runLater(() -> {
+			if(datasetWatcher != null)
+				onDatasetChange(imageFile, category, removed);
+		});
+	}
+	
+	/**
+	 * An image file of the opened directory was added, changed or removed and its 
+	 * features are already updated.
+	 * 
+	 * @param imageFile
+	 * @param category
+	 * @param removed
+	 */
+	private void onDatasetChange(Path imageFile, String category, boolean removed) {
+		queryCache.clear();
+		rebuildSearchIndices();
+		
+		// update the file lists of the category and of the "All" category
+		String filename = imageFile.getFileName().toString();
+		for (String name : new String[] { category, "All" }) {
+			List<Path> files = new ArrayList<>(Arrays.asList(categoryToFileList.getOrDefault(name, new Path[0])));
+			files.removeIf(file -> file.getFileName().toString().equals(filename));
+			if(!removed)
+				files.add(imageFile);
+			categoryToFileList.put(name, files.toArray(new Path[0]));
+		}
+		
+		// new and empty categories
+		if(retrievalService.getCategoryFeature(category) == null) {
+			categoryToFileList.remove(category);
+			categoryList.getItems().remove(category);
+		} else if(!categoryList.getItems().contains(category)) {
+			int position = 1;
+			while(position < categoryList.getItems().size() && categoryList.getItems().get(position).compareTo(category) < 0)
+				position++;
+			categoryList.getItems().add(position, category);
+		}
+		
+		// refresh the displayed category
+		String selected = categoryList.getSelectionModel().getSelectedItem();
+		if(category.equals(selected) || "All".equals(selected)) {
+			if(category.equals(selected))
+				updateMeanColorAndImage(retrievalService.getCategoryFeature(category));
+			if(removed)
+				imageFileList.getItems().remove(filename);
+			else if(!imageFileList.getItems().contains(filename))
+				imageFileList.getItems().add(filename);
+		}
+	}
+	
+	/**
+	 * Build the search indices of the changed features in a background task,
+	 * a build which is still running gets cancelled.
+	 */
+	private void rebuildSearchIndices() {
+		if(indexTask != null)
+			indexTask.cancel();
+		
+		Task<Void> task = new Task<Void>() {
+			
+			@Override
+			protected Void call() throws Exception {
+				retrievalService.buildSearchIndices(true, this::isCancelled);
+				return null;
+			}
+		};
+		task.setOnFailed(event -> task.getException().printStackTrace());
+		
+		indexTask = task;
+		Thread thread = new Thread(task, "search-index");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stop updating the features of the last opened directory
+	 */
+	private void stopWatching() {
+		if(indexTask != null)
+			indexTask.cancel();
+		indexTask = null;
+		if(datasetWatcher == null) return;
+		try {
+			datasetWatcher.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		datasetWatcher = null;
+	}
+	
 	/**
 	 * Clears all lists and displays
 	 */
@@ -397,6 +844,16 @@ public abstract class DatasetViewerBase {
 	 */
 	public abstract Image getMeanImage(Path ... imageFiles);
 	
+	/**
+	 * Calculate the distance between the features of two images or categories.
+	 * 
+	 * @param f1
+	 * @param f2
+	 * @param featureType
+	 * @return
+	 */
+	public abstract long calculateDistance(FeatureContainer f1, FeatureContainer f2, FeatureType featureType);
+	
 	/**
 	 * Sort the elements in the database based on the similarity to the search query.
 	 * The similarity will be calculated between two features. Features are are stored in
@@ -408,7 +865,7 @@ public abstract class DatasetViewerBase {
 	 * @return sorted list of database elements
 	 */
 	public abstract List<FeatureContainer> retrieve(FeatureContainer query, FeatureContainer[] database, FeatureType featureType);
-
+	
 	/**
 	 * Predict the category.
 	 * Make the prediction based on the sorted list of features (images or categories). 
@@ -0,0 +1,143 @@
+package de.htw.mp.feature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureIndexFile;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * After files were added, replaced and removed, the watched features have to be the
+ * same as the features of a new extraction of the directory.
+ *
+ * @author Nico Hezel
+ */
+public class DatasetWatcherTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random random = new Random(17);
+	private final AtomicInteger changes = new AtomicInteger();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private Path directory;
+	private FeatureExtractionPipeline.Result result;
+	private FeatureExtractionPipeline.Result fresh;
+
+	@Before
+	public void writeImages() throws IOException {
+		directory = folder.getRoot().toPath();
+		for (int c = 0; c < 3; c++)
+			for (int i = 0; i < 5; i++)
+				writeImage("c" + c + "_" + i + ".png");
+	}
+
+	@After
+	public void closeStores() throws IOException {
+		executor.shutdownNow();
+		for (FeatureExtractionPipeline.Result features : new FeatureExtractionPipeline.Result[] { result, fresh })
+			if(features != null)
+				features.getStore().close();
+	}
+
+	/**
+	 * Random image, written under another name first and moved into place in one step
+	 */
+	private void writeImage(String name) throws IOException {
+		BufferedImage image = new BufferedImage(16, 12, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, random.nextInt());
+		Path tmpFile = directory.resolve(name + ".part");
+		ImageIO.write(image, "png", tmpFile.toFile());
+		Files.move(tmpFile, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private FeatureExtractionPipeline.Result extract(FeatureIndexFile index) throws IOException, InterruptedException {
+		return new FeatureExtractionPipeline(2).run(FeatureExtractionPipeline.readCategories(directory), index, (done, total) -> {});
+	}
+
+	@Test
+	public void changesOfExtractedFeaturesMatchNewExtraction() throws Exception {
+		result = extract(null);
+		watchChanges();
+	}
+
+	@Test
+	public void changesOfIndexedFeaturesMatchNewExtraction() throws Exception {
+		FeatureExtractionPipeline.Result extracted = extract(null);
+		Path indexFile = directory.resolve(FeatureIndexFile.FILE_NAME);
+		FeatureIndexFile.write(indexFile, directory, extracted.getCategoryFeatures().values(), extracted.getImageFeatures().values());
+		extracted.getStore().close();
+
+		FeatureIndexFile index = FeatureIndexFile.read(indexFile);
+		assertNotNull(index);
+		result = extract(index);
+		assertEquals(0, result.getCalculatedCount());
+		watchChanges();
+	}
+
+	private void watchChanges() throws Exception {
+		try (DatasetWatcher watcher = new DatasetWatcher(directory, result, executor, (imageFile, category, removed) -> changes.incrementAndGet())) {
+			watcher.start();
+
+			// a new and a replaced image, a removed category and a new one
+			writeImage("c0_5.png");
+			writeImage("c1_0.png");
+			for (int i = 0; i < 5; i++)
+				Files.delete(directory.resolve("c2_" + i + ".png"));
+			writeImage("c3_0.png");
+			writeImage("c3_1.png");
+			awaitChanges(9);
+		}
+
+		fresh = extract(null);
+		assertEquals(fresh.getImageFeatures().keySet(), result.getImageFeatures().keySet());
+		assertEquals(fresh.getCategoryFeatures().keySet(), result.getCategoryFeatures().keySet());
+		assertSameFeatures(fresh.getImageFeatures(), result.getImageFeatures());
+		assertSameFeatures(fresh.getCategoryFeatures(), result.getCategoryFeatures());
+	}
+
+	/**
+	 * Wait for the changes, some file systems report a change more than once
+	 */
+	private void awaitChanges(int count) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 30_000;
+		while(changes.get() < count && System.currentTimeMillis() < timeout)
+			Thread.sleep(50);
+		Thread.sleep(500);
+		assertTrue(changes.get() + " of " + count + " changes", changes.get() >= count);
+	}
+
+	private static void assertSameFeatures(Map<String, FeatureContainer> expected, Map<String, FeatureContainer> actual) {
+		for (FeatureContainer feature : expected.values()) {
+			FeatureContainer other = actual.get(feature.getName());
+			FeatureStore store = feature.getStore();
+			for (FeatureType type : store.getTypes())
+				assertArrayEquals(feature.getName() + " " + type, store.get(type, feature.getRow()), other.getStore().get(type, other.getRow()));
+		}
+	}
+}
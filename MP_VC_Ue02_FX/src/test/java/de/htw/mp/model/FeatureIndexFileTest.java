@@ -0,0 +1,138 @@
+package de.htw.mp.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.mp.feature.FeatureExtractionPipeline;
+
+/**
+ * An index file has to return the features it was written with, as long as
+ * none of the image files has changed.
+ *
+ * @author Nico Hezel
+ */
+public class FeatureIndexFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private Path indexFile;
+	private FeatureExtractionPipeline.Result result;
+	private FeatureIndexFile index;
+
+	@Before
+	public void writeIndex() throws IOException, InterruptedException {
+		directory = folder.getRoot().toPath();
+		indexFile = directory.resolve(FeatureIndexFile.FILE_NAME);
+		Random random = new Random(3);
+		for (int c = 0; c < 3; c++)
+			for (int i = 0; i < 4; i++) {
+				BufferedImage image = new BufferedImage(16, 12, BufferedImage.TYPE_INT_RGB);
+				for (int y = 0; y < image.getHeight(); y++)
+					for (int x = 0; x < image.getWidth(); x++)
+						image.setRGB(x, y, random.nextInt());
+				ImageIO.write(image, "png", directory.resolve("c" + c + "_" + i + ".png").toFile());
+			}
+
+		result = extract(null);
+		FeatureIndexFile.write(indexFile, directory, result.getCategoryFeatures().values(), result.getImageFeatures().values());
+		index = FeatureIndexFile.read(indexFile);
+		assertNotNull(index);
+	}
+
+	@After
+	public void closeStores() throws IOException {
+		index.getStore().close();
+		result.getStore().close();
+	}
+
+	private FeatureExtractionPipeline.Result extract(FeatureIndexFile index) throws IOException, InterruptedException {
+		return new FeatureExtractionPipeline(2).run(FeatureExtractionPipeline.readCategories(directory), index, (done, total) -> {});
+	}
+
+	@Test
+	public void readsTheWrittenFeatures() throws IOException {
+		assertEquals(3 + 12, index.size());
+		assertEquals(16, index.getStore().getImageWidth());
+		assertEquals(12, index.getStore().getImageHeight());
+
+		for (FeatureContainer feature : result.getImageFeatures().values()) {
+			int row = index.getImageRow(directory.resolve(feature.getName()));
+			assertNotEquals(feature.getName(), -1, row);
+			assertSameFeatures(feature, index.getStore(), row);
+		}
+
+		Map<String, Path[]> categories = FeatureExtractionPipeline.readCategories(directory);
+		for (FeatureContainer feature : result.getCategoryFeatures().values()) {
+			int row = index.getCategoryRow(feature.getName(), categories.get(feature.getName()));
+			assertNotEquals(feature.getName(), -1, row);
+			assertSameFeatures(feature, index.getStore(), row);
+		}
+	}
+
+	@Test
+	public void unchangedFilesAreNotCalculatedAgain() throws IOException, InterruptedException {
+		FeatureExtractionPipeline.Result indexed = extract(index);
+		assertEquals(0, indexed.getCalculatedCount());
+		assertFalse(indexed.differsFrom(index));
+		for (FeatureContainer feature : result.getImageFeatures().values())
+			assertSameFeatures(feature, indexed.getStore(), indexed.getImageFeatures().get(feature.getName()).getRow());
+	}
+
+	@Test
+	public void modifiedFilesInvalidateTheirRows() throws IOException, InterruptedException {
+		Path changed = directory.resolve("c1_2.png");
+		Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 10_000));
+
+		Map<String, Path[]> categories = FeatureExtractionPipeline.readCategories(directory);
+		assertEquals(-1, index.getImageRow(changed));
+		assertEquals(-1, index.getCategoryRow("c1", categories.get("c1")));
+		assertNotEquals(-1, index.getImageRow(directory.resolve("c1_1.png")));
+		assertNotEquals(-1, index.getCategoryRow("c0", categories.get("c0")));
+
+		// only the image and its category are calculated again
+		FeatureExtractionPipeline.Result indexed = extract(index);
+		assertEquals(2, indexed.getCalculatedCount());
+		assertTrue(indexed.differsFrom(index));
+		for (FeatureContainer feature : result.getImageFeatures().values())
+			assertSameFeatures(feature, indexed.getStore(), indexed.getImageFeatures().get(feature.getName()).getRow());
+		for (FeatureContainer feature : result.getCategoryFeatures().values())
+			assertSameFeatures(feature, indexed.getStore(), indexed.getCategoryFeatures().get(feature.getName()).getRow());
+	}
+
+	@Test
+	public void missingOrForeignFilesAreNoIndex() throws IOException {
+		assertNull(FeatureIndexFile.read(directory.resolve("missing.idx")));
+
+		Path foreignFile = directory.resolve("foreign.idx");
+		Files.write(foreignFile, new byte[64]);
+		assertNull(FeatureIndexFile.read(foreignFile));
+	}
+
+	private static void assertSameFeatures(FeatureContainer expected, FeatureStore store, int row) {
+		for (FeatureType type : expected.getStore().getTypes())
+			assertArrayEquals(expected.getName() + " " + type, expected.getStore().get(type, expected.getRow()), store.get(type, row));
+	}
+}
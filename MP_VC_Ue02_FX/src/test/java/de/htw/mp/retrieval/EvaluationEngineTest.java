@@ -0,0 +1,129 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * The parallel evaluation has to count the same predictions as a sequential
+ * leave-one-out evaluation with a majority vote of the linear scan, the
+ * sweep the same predictions as an evaluation of every k.
+ *
+ * @author Nico Hezel
+ */
+public class EvaluationEngineTest {
+
+	private static final int K_MAX = 6;
+
+	private static ForkJoinPool pool;
+	private static FeatureContainer[] database;
+
+	@BeforeClass
+	public static void createDatabase() {
+		pool = new ForkJoinPool(4);
+		database = TestFeatures.createDatabase(5, 30, 6, 4, 11);
+	}
+
+	@AfterClass
+	public static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Rankings of the cache-blocked batch search
+	 */
+	static List<Ranking> retrieveBatch(FeatureContainer[] queries, FeatureContainer[] database, FeatureType featureType, int k) {
+		long[][] distances = new long[queries.length][];
+		int[][] indices = BatchSearch.searchTopK(queries, database, featureType, k, distances);
+		List<Ranking> rankings = new ArrayList<>(queries.length);
+		for (int i = 0; i < queries.length; i++)
+			rankings.add(new Ranking(indices[i], distances[i], database));
+		return rankings;
+	}
+
+	@Test
+	public void leaveOneOutMatchesSequentialEvaluation() {
+		EvaluationEngine engine = new EvaluationEngine(EvaluationEngineTest::retrieveBatch, KnnClassifier.Voting.MAJORITY, pool);
+		for (FeatureType featureType : FeatureType.values())
+			for (int k = 1; k <= K_MAX; k++)
+				assertEvaluation(engine, database, featureType, k, true);
+	}
+
+	@Test
+	public void queriesOfTheDatabaseFindThemselves() {
+		EvaluationEngine engine = new EvaluationEngine(EvaluationEngineTest::retrieveBatch, KnnClassifier.Voting.MAJORITY, pool);
+		FeatureContainer[] queries = Arrays.copyOf(database, 40);
+		for (int k = 1; k <= K_MAX; k++)
+			assertEvaluation(engine, queries, FeatureType.ColorLayout, k, false);
+
+		// every query is its own nearest neighbour
+		assertEquals(queries.length, engine.evaluate(queries, database, FeatureType.MeanImage, 1, false).getCorrectCount());
+	}
+
+	@Test
+	public void sweepMatchesEvaluationOfEveryK() {
+		for (KnnClassifier.Voting voting : KnnClassifier.Voting.values()) {
+			EvaluationEngine engine = new EvaluationEngine(EvaluationEngineTest::retrieveBatch, voting, pool);
+			for (FeatureType featureType : FeatureType.values())
+				for (boolean leaveOneOut : new boolean[] { true, false }) {
+					int[] correct = engine.countCorrect(database, database, featureType, K_MAX, leaveOneOut);
+					for (int k = 1; k <= K_MAX; k++)
+						assertEquals(voting + " " + featureType + " k=" + k, engine.evaluate(database, database, featureType, k, leaveOneOut).getCorrectCount(), correct[k - 1]);
+				}
+		}
+	}
+
+	private static void assertEvaluation(EvaluationEngine engine, FeatureContainer[] queries, FeatureType featureType, int k, boolean leaveOneOut) {
+		EvaluationResult result = engine.evaluate(queries, database, featureType, k, leaveOneOut);
+		List<String> categories = Arrays.asList(result.getCategories());
+
+		int[][] confusionMatrix = new int[categories.size()][categories.size()];
+		int correct = 0;
+		for (FeatureContainer query : queries) {
+			String predicted = majorityVote(query, featureType, k, leaveOneOut);
+			if(predicted.equals(query.getCategory()))
+				correct++;
+			confusionMatrix[categories.indexOf(query.getCategory())][categories.indexOf(predicted)]++;
+		}
+
+		String message = featureType + " k=" + k;
+		assertEquals(message, queries.length, result.getQueryCount());
+		assertEquals(message, correct, result.getCorrectCount());
+		for (int i = 0; i < confusionMatrix.length; i++)
+			assertArrayEquals(message, confusionMatrix[i], result.getConfusionMatrix()[i]);
+	}
+
+	/**
+	 * Most frequent category of the k nearest neighbours, ties go to the category with the nearest neighbour
+	 */
+	private static String majorityVote(FeatureContainer query, FeatureType featureType, int k, boolean leaveOneOut) {
+		long[] distances = new long[database.length];
+		int[] ranking = TestFeatures.linearScan(query, database, 0, database.length, featureType, database.length, distances);
+
+		Map<String, Integer> votes = new LinkedHashMap<>();
+		for (int i = 0, count = 0; i < ranking.length && count < k; i++) {
+			if(leaveOneOut && database[ranking[i]] == query) continue;
+			votes.merge(database[ranking[i]].getCategory(), 1, Integer::sum);
+			count++;
+		}
+
+		String best = null;
+		for (Map.Entry<String, Integer> vote : votes.entrySet())
+			if(best == null || vote.getValue() > votes.get(best))
+				best = vote.getKey();
+		return best;
+	}
+}
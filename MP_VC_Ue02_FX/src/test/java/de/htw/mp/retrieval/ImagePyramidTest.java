@@ -0,0 +1,56 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * The coarse to fine search of the mean images has to return the same elements
+ * in the same order as a linear scan.
+ *
+ * @author Nico Hezel
+ */
+public class ImagePyramidTest {
+
+	private final FeatureContainer[] database = TestFeatures.createDatabase(5, 40, 24, 18, 31);
+	private final FeatureContainer[] queries = TestFeatures.createDatabase(5, 4, 24, 18, 32);
+	private final ImagePyramid pyramid = new ImagePyramid(database[0].getStore(), 4, 8, 32);
+
+	@Test
+	public void searchMatchesLinearScan() {
+		assertTrue(pyramid.contains(database[0]));
+		assertFalse(pyramid.contains(queries[0]));
+
+		for (int k : new int[] { 1, 4, 25, database.length }) {
+			for (FeatureContainer query : database)
+				assertArrayEquals(query + " k=" + k, linearScan(query, 0, database.length, k, new long[k]), pyramid.searchTopK(query, database, k));
+			for (FeatureContainer query : queries)
+				assertArrayEquals(query + " k=" + k, linearScan(query, 0, database.length, k, new long[k]), pyramid.searchTopK(query, database, k));
+		}
+	}
+
+	@Test
+	public void rangeSearchFindsTheExactDistances() {
+		for (int[] range : new int[][] { { 0, 3 }, { 17, 150 }, { 199, 200 } })
+			for (FeatureContainer query : database) {
+				int count = Math.min(6, range[1] - range[0]);
+				long[] expectedDistances = new long[count];
+				int[] expected = linearScan(query, range[0], range[1], 6, expectedDistances);
+
+				TopKHeap heap = new TopKHeap(count);
+				pyramid.search(query, database, range[0], range[1], heap);
+				long[] distances = new long[count];
+				assertArrayEquals(expected, heap.drainSorted(distances));
+				assertArrayEquals(expectedDistances, distances);
+			}
+	}
+
+	private int[] linearScan(FeatureContainer query, int from, int to, int k, long[] distances) {
+		return TestFeatures.linearScan(query, database, from, to, FeatureType.MeanImage, k, distances);
+	}
+}
@@ -0,0 +1,60 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * The k-d tree has to return the same elements in the same order as a linear scan.
+ *
+ * @author Nico Hezel
+ */
+public class KdTreeTest {
+
+	private static final FeatureType[] TYPES = { FeatureType.MeanColor, FeatureType.ColorLayout };
+
+	private final FeatureContainer[] database = TestFeatures.createDatabase(4, 100, 8, 8, 5);
+	private final FeatureContainer[] queries = TestFeatures.createDatabase(4, 10, 8, 8, 6);
+
+	@Test
+	public void searchMatchesLinearScan() {
+		for (FeatureType featureType : TYPES) {
+			KdTree tree = new KdTree(database, featureType);
+			assertTrue(tree.isExact());
+			assertTrue(tree.isBuiltFor(database, featureType));
+			for (int k : new int[] { 1, 5, 17, database.length + 1 }) {
+				for (FeatureContainer query : database)
+					assertSearch(tree, query, featureType, k, 0, database.length);
+				for (FeatureContainer query : queries)
+					assertSearch(tree, query, featureType, k, 0, database.length);
+			}
+		}
+	}
+
+	@Test
+	public void rangeSearchMatchesLinearScan() {
+		for (FeatureType featureType : TYPES) {
+			KdTree tree = new KdTree(database, featureType);
+			for (int[] range : new int[][] { { 0, 1 }, { 13, 77 }, { 200, 400 }, { 50, 50 } })
+				for (FeatureContainer query : queries)
+					assertSearch(tree, query, featureType, 9, range[0], range[1]);
+		}
+	}
+
+	private void assertSearch(KdTree tree, FeatureContainer query, FeatureType featureType, int k, int from, int to) {
+		int count = Math.min(k, to - from);
+		long[] expectedDistances = new long[count];
+		int[] expected = TestFeatures.linearScan(query, database, from, to, featureType, k, expectedDistances);
+
+		long[] distances = new long[count];
+		String message = featureType + " " + query + " k=" + k + " range " + from + "-" + to;
+		assertArrayEquals(message, expected, tree.searchTopK(query, k, from, to, distances));
+		assertArrayEquals(message, expectedDistances, distances);
+		if(from == 0 && to == database.length)
+			assertArrayEquals(message, expected, tree.searchTopK(query, k));
+	}
+}
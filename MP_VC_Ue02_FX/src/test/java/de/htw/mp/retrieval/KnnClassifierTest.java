@@ -0,0 +1,78 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Votes of the k-NN classifier, the classification of all k at once has to
+ * predict the same categories as the classification of every single k.
+ *
+ * @author Nico Hezel
+ */
+public class KnnClassifierTest {
+
+	private final FeatureContainer[] database = TestFeatures.createDatabase(4, 25, 4, 4, 41);
+
+	@Test
+	public void tiesGoToTheCategoryOfTheNearestNeighbour() {
+		KnnClassifier knn = new KnnClassifier(KnnClassifier.Voting.MAJORITY, "a", "b");
+		Ranking ranking = new Ranking(new FeatureContainer[] {
+				container("b", 0), container("a", 1), container("a", 2), container("b", 3) }, new long[] { 1, 2, 3, 4 });
+
+		assertEquals(1, knn.classify(ranking, 1));
+		assertEquals(1, knn.classify(ranking, 2));
+		assertEquals(0, knn.classify(ranking, 3));
+		assertEquals(1, knn.classify(ranking, 4));
+	}
+
+	@Test
+	public void weightedVotingPrefersCloseNeighbours() {
+		Ranking ranking = new Ranking(new FeatureContainer[] {
+				container("b", 0), container("a", 1), container("a", 2) }, new long[] { 0, 10, 10 });
+
+		assertEquals(0, new KnnClassifier(KnnClassifier.Voting.MAJORITY, "a", "b").classify(ranking, 3));
+		assertEquals(1, new KnnClassifier(KnnClassifier.Voting.DISTANCE_WEIGHTED, "a", "b").classify(ranking, 3));
+	}
+
+	@Test
+	public void theQueryDoesNotVote() {
+		FeatureContainer query = container("b", 0);
+		Ranking ranking = new Ranking(new FeatureContainer[] {
+				container("b", 0), container("a", 1), container("b", 2) }, new long[] { 0, 1, 2 });
+
+		KnnClassifier knn = new KnnClassifier(KnnClassifier.Voting.MAJORITY, "a", "b");
+		assertEquals(1, knn.classify(ranking, 1));
+		assertEquals(0, knn.classify(ranking, 1, query));
+		assertEquals(0, knn.classify(ranking, 2, query));
+		assertEquals(-1, knn.classify(new Ranking(new FeatureContainer[] { query }, new long[] { 0 }), 1, query));
+	}
+
+	@Test
+	public void classifyEachMatchesClassifyOfEveryK() {
+		int kMax = 12;
+		for (KnnClassifier.Voting voting : KnnClassifier.Voting.values()) {
+			KnnClassifier knn = new KnnClassifier(voting);
+			int[] predictions = new int[kMax];
+			for (FeatureType featureType : FeatureType.values())
+				for (FeatureContainer query : database) {
+					long[] distances = new long[kMax + 1];
+					Ranking ranking = new Ranking(TestFeatures.linearScan(query, database, 0, database.length, featureType, kMax + 1, distances), distances, database);
+
+					knn.classifyEach(ranking, kMax, predictions, query);
+					for (int k = 1; k <= kMax; k++)
+						assertEquals(voting + " " + featureType + " k=" + k, knn.classify(ranking, k, query), predictions[k - 1]);
+				}
+		}
+	}
+
+	/**
+	 * Element of the category at a row of the test store
+	 */
+	private FeatureContainer container(String category, int row) {
+		return new FeatureContainer(category + row, category, database[0].getStore(), row);
+	}
+}
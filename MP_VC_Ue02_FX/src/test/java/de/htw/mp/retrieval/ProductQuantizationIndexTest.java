@@ -0,0 +1,57 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Re-ranking all candidates of the product quantization index has to give the
+ * result of a linear scan, without re-ranking the results stay in the searched range.
+ *
+ * @author Nico Hezel
+ */
+public class ProductQuantizationIndexTest {
+
+	private final FeatureContainer[] database = TestFeatures.createDatabase(4, 60, 8, 6, 21);
+	private final FeatureContainer[] queries = TestFeatures.createDatabase(4, 5, 8, 6, 22);
+
+	@Test
+	public void rerankingAllCandidatesMatchesLinearScan() {
+		ProductQuantizationIndex index = new ProductQuantizationIndex(database, FeatureType.MeanImage, 8, 16, 100, 5, database.length, 1);
+		assertFalse(index.isExact());
+		assertTrue(index.isBuiltFor(database, FeatureType.MeanImage));
+		assertEquals(8, index.getCodeSize());
+
+		for (FeatureContainer query : queries)
+			for (int[] range : new int[][] { { 0, database.length }, { 30, 95 }, { 100, 101 } }) {
+				int count = Math.min(10, range[1] - range[0]);
+				long[] expectedDistances = new long[count];
+				int[] expected = TestFeatures.linearScan(query, database, range[0], range[1], FeatureType.MeanImage, 10, expectedDistances);
+
+				long[] distances = new long[count];
+				assertArrayEquals(expected, index.searchTopK(query, 10, range[0], range[1], distances));
+				assertArrayEquals(expectedDistances, distances);
+			}
+	}
+
+	@Test
+	public void approximateResultsStayInTheRange() {
+		ProductQuantizationIndex index = new ProductQuantizationIndex(database, FeatureType.MeanImage, 8, 16, 100, 5, 0, 1);
+		for (FeatureContainer query : queries) {
+			long[] distances = new long[7];
+			int[] result = index.searchTopK(query, 7, 40, 120, distances);
+			assertEquals(7, result.length);
+			for (int i = 0; i < result.length; i++) {
+				assertTrue(result[i] >= 40 && result[i] < 120);
+				if(i > 0)
+					assertTrue(distances[i - 1] <= distances[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package de.htw.mp.retrieval;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import de.htw.mp.model.FeatureContainer;
+import de.htw.mp.model.FeatureStore;
+import de.htw.mp.model.FeatureType;
+
+/**
+ * Synthetic feature databases and the linear scan all searches are compared with.
+ * The elements of a category scatter around a random center, the values are
+ * coarse to produce many equal distances.
+ *
+ * @author Nico Hezel
+ */
+final class TestFeatures {
+
+	private TestFeatures() {
+	}
+
+	/**
+	 * Random features of all types, the categories are mixed in the database order
+	 *
+	 * @param categories
+	 * @param perCategory
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param seed
+	 * @return
+	 */
+	static FeatureContainer[] createDatabase(int categories, int perCategory, int imageWidth, int imageHeight, long seed) {
+		Random random = new Random(seed);
+		FeatureStore store = new FeatureStore(imageWidth, imageHeight, categories * perCategory);
+		FeatureType[] types = store.getTypes();
+
+		byte[][][] centers = new byte[categories][types.length][];
+		for (int c = 0; c < categories; c++)
+			for (FeatureType type : types) {
+				centers[c][type.ordinal()] = new byte[store.getDimension(type)];
+				random.nextBytes(centers[c][type.ordinal()]);
+			}
+
+		FeatureContainer[] database = new FeatureContainer[categories * perCategory];
+		for (int i = 0; i < database.length; i++) {
+			int category = random.nextInt(categories);
+			database[i] = store.add("c" + category + "_" + i + ".png", "c" + category);
+			for (FeatureType type : types) {
+				byte[] center = centers[category][type.ordinal()];
+				byte[] values = new byte[center.length];
+				for (int d = 0; d < values.length; d++)
+					values[d] = (byte) Math.max(0, Math.min(255, (center[d] & 0xFF) + (random.nextInt(9) - 4) * 24));
+				store.set(type, database[i].getRow(), values);
+			}
+		}
+		return database;
+	}
+
+	/**
+	 * Distance as defined by the extractor of the feature type
+	 *
+	 * @param f1
+	 * @param f2
+	 * @param featureType
+	 * @return
+	 */
+	static long distance(FeatureContainer f1, FeatureContainer f2, FeatureType featureType) {
+		FeatureStore s1 = f1.getStore(), s2 = f2.getStore();
+		return featureType.getExtractor().distance(s1.getBuffer(featureType, f1.getRow()), s1.getOffset(featureType, f1.getRow()),
+				s2.getBuffer(featureType, f2.getRow()), s2.getOffset(featureType, f2.getRow()), s1.getDimension(featureType));
+	}
+
+	/**
+	 * Sorts all elements between from (inclusive) and to (exclusive) by their distance
+	 * and their index and returns the first k
+	 *
+	 * @param query
+	 * @param database
+	 * @param from
+	 * @param to
+	 * @param featureType
+	 * @param k
+	 * @param distances receives the distances of the returned elements
+	 * @return database indices, best first
+	 */
+	static int[] linearScan(FeatureContainer query, FeatureContainer[] database, int from, int to, FeatureType featureType, int k, long[] distances) {
+		long[] all = new long[database.length];
+		for (int i = from; i < to; i++)
+			all[i] = distance(query, database[i], featureType);
+
+		int[] indices = IntStream.range(from, to).boxed()
+				.sorted((a, b) -> all[a] != all[b] ? Long.compare(all[a], all[b]) : Integer.compare(a, b))
+				.limit(k).mapToInt(Integer::intValue).toArray();
+		for (int i = 0; i < indices.length; i++)
+			distances[i] = all[indices[i]];
+		return indices;
+	}
+}
@@ -0,0 +1,96 @@
+package de.htw.mp.retrieval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * The heap has to keep the same elements in the same order as a full sort
+ * by distance and index.
+ *
+ * @author Nico Hezel
+ */
+public class TopKHeapTest {
+
+	@Test
+	public void equalDistancesAreOrderedByIndex() {
+		TopKHeap heap = new TopKHeap(4);
+		for (int index : new int[] { 7, 3, 9, 1, 5, 0, 8 })
+			heap.offer(10, index);
+
+		long[] distances = new long[4];
+		assertArrayEquals(new int[] { 0, 1, 3, 5 }, heap.drainSorted(distances));
+		assertArrayEquals(new long[] { 10, 10, 10, 10 }, distances);
+	}
+
+	@Test
+	public void tiesAtTheThresholdKeepTheSmallerIndex() {
+		TopKHeap heap = new TopKHeap(2);
+		assertTrue(heap.offer(5, 4));
+		assertTrue(heap.offer(1, 6));
+		assertEquals(5, heap.threshold());
+
+		assertFalse(heap.offer(5, 9));
+		assertTrue(heap.offer(5, 2));
+		assertArrayEquals(new int[] { 6, 2 }, heap.drainSorted());
+	}
+
+	@Test
+	public void keepsTheSmallestElementsInSortedOrder() {
+		Random random = new Random(42);
+		for (int run = 0; run < 50; run++) {
+			int size = 1 + random.nextInt(200);
+			int k = 1 + random.nextInt(20);
+			long[] distances = new long[size];
+			for (int i = 0; i < size; i++)
+				distances[i] = random.nextInt(10);
+
+			TopKHeap heap = new TopKHeap(k);
+			for (int i = 0; i < size; i++)
+				heap.offer(distances[i], i);
+
+			int[] expected = IntStream.range(0, size).boxed()
+					.sorted((a, b) -> distances[a] != distances[b] ? Long.compare(distances[a], distances[b]) : Integer.compare(a, b))
+					.limit(k).mapToInt(Integer::intValue).toArray();
+			long[] sortedDistances = new long[heap.size()];
+			int[] actual = heap.drainSorted(sortedDistances);
+			assertArrayEquals(expected, actual);
+			for (int i = 0; i < actual.length; i++)
+				assertEquals(distances[actual[i]], sortedDistances[i]);
+			assertEquals(0, heap.size());
+		}
+	}
+
+	@Test
+	public void mergedHeapsEqualOneHeap() {
+		Random random = new Random(7);
+		long[] distances = random.longs(300, 0, 20).toArray();
+
+		TopKHeap all = new TopKHeap(10);
+		TopKHeap merged = new TopKHeap(10);
+		for (int from = 0; from < distances.length; from += 64) {
+			TopKHeap part = new TopKHeap(10);
+			for (int i = from; i < Math.min(distances.length, from + 64); i++) {
+				part.offer(distances[i], i);
+				all.offer(distances[i], i);
+			}
+			merged.addAll(part);
+		}
+		assertArrayEquals(all.drainSorted(), merged.drainSorted());
+	}
+
+	@Test
+	public void emptyHeapAcceptsNothing() {
+		TopKHeap heap = new TopKHeap(0);
+		assertFalse(heap.offer(0, 0));
+		assertEquals(Long.MAX_VALUE, heap.threshold());
+		assertArrayEquals(new int[0], heap.drainSorted());
+		assertArrayEquals(new int[0], new TopKHeap(-1).drainSorted());
+	}
+}